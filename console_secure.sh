@@ -1,2 +1,2 @@
 #!/bin/bash
-java -jar target/PasswordGenerator.jar pwgen.config.hashSecurity=HighestExistingOrHigh pwgen.config.forceSafeConsole=true pwgen.config.copyPasswordToClipboard=true pwgen.config.echoPassword=false pwgen.generator.version=ALEPH pwgen.config.usernameSensitive=true
\ No newline at end of file
+java --add-modules jdk.incubator.vector -jar target/PasswordGenerator.jar pwgen.config.hashSecurity=HighestExistingOrHigh pwgen.config.forceSafeConsole=true pwgen.config.copyPasswordToClipboard=true pwgen.config.echoPassword=false pwgen.generator.version=ALEPH pwgen.config.usernameSensitive=true
\ No newline at end of file
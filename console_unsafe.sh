@@ -1,2 +1,2 @@
 #!/bin/bash
-java -jar target/PasswordGenerator.jar pwgen.config.hashSecurity=HighestExistingOrMedium pwgen.config.forceSafeConsole=false pwgen.config.copyPasswordToClipboard=true pwgen.config.echoPassword=false pwgen.generator.version=ALEPH
\ No newline at end of file
+java --add-modules jdk.incubator.vector -jar target/PasswordGenerator.jar pwgen.config.hashSecurity=HighestExistingOrMedium pwgen.config.forceSafeConsole=false pwgen.config.copyPasswordToClipboard=true pwgen.config.echoPassword=false pwgen.generator.version=ALEPH
\ No newline at end of file
@@ -13,6 +13,81 @@ import java.util.Base64;
  * Provides utilities for arrays. Mainly contains rewrites of standard List functions for byte arrays.
  */
 public class ArrayUtils {
+	/**
+	 * The implementation of the byte operations, chosen based on the availability of the vector API
+	 */
+	private static final ByteKernels KERNELS = createKernels();
+	
+	/**
+	 * Creates the fastest available implementation of the byte operations.
+	 *
+	 * @return The vectorized kernels if the {@code jdk.incubator.vector} module is present, the scalar kernels otherwise
+	 */
+	private static @NonNull ByteKernels createKernels() {
+		if(ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent()) {
+			try {
+				//loaded reflectively, so that the vector classes are never linked without the module
+				return (ByteKernels) Class.forName(ArrayUtils.class.getPackageName() + ".VectorKernels").getDeclaredConstructor().newInstance();
+			} catch(Throwable e) {
+				e.printStackTrace();
+			}
+		}
+		return new ScalarKernels();
+	}
+	
+	/**
+	 * Checks whether the byte operations use the vector API.
+	 *
+	 * @return True if the vectorized implementation is used
+	 */
+	public static boolean isVectorized() {
+		return !(KERNELS instanceof ScalarKernels);
+	}
+	
+	/**
+	 * Gets the implementation of the byte operations that is in use.
+	 *
+	 * @return The kernels
+	 */
+	static @NonNull ByteKernels getKernels() {
+		return KERNELS;
+	}
+	
+	/**
+	 * XORs the input with the key and writes the result to the output. The key is repeated to match the length of the input.
+	 *
+	 * @param input  The input
+	 * @param key    The key
+	 * @param output The output, at least as long as the input; might be the input itself
+	 */
+	public static void xor(@NonNull byte[] input, @NonNull byte[] key, @NonNull byte[] output) {
+		if(input.length == 0) {
+			return;
+		}
+		if(key.length == 0) {
+			throw new IllegalArgumentException("Empty key");
+		}
+		KERNELS.xor(input, key, output);
+	}
+	
+	/**
+	 * Overwrites the specified array with zeroes.
+	 *
+	 * @param array The array to clear
+	 */
+	public static void wipe(@NonNull byte[] array) {
+		KERNELS.wipe(array);
+	}
+	
+	/**
+	 * Overwrites the specified array with zeroes.
+	 *
+	 * @param array The array to clear
+	 */
+	public static void wipe(@NonNull char[] array) {
+		KERNELS.wipe(array);
+	}
+	
 	/**
 	 * Shuffles the specified byte array using the provided secure random number generator.
 	 *
@@ -69,10 +144,15 @@ public class ArrayUtils {
 	 * @return The byte array
 	 */
 	public static @NonNull byte[] toByteArray(@NonNull char[] array) {
+		if(KERNELS.isAscii(array)) {
+			byte[] bytes = new byte[array.length];
+			KERNELS.narrow(array, bytes);
+			return bytes;
+		}
 		CharBuffer charBuffer = CharBuffer.wrap(array);
 		ByteBuffer byteBuffer = StandardCharsets.UTF_8.encode(charBuffer);
 		byte[] bytes = Arrays.copyOfRange(byteBuffer.array(), byteBuffer.position(), byteBuffer.limit());
-		Arrays.fill(byteBuffer.array(), (byte) 0);
+		wipe(byteBuffer.array());
 		return bytes;
 	}
 	
@@ -83,10 +163,15 @@ public class ArrayUtils {
 	 * @return The char array
 	 */
 	public static @NonNull char[] toCharArray(@NonNull byte[] array) {
+		if(KERNELS.isAscii(array)) {
+			char[] chars = new char[array.length];
+			KERNELS.widen(array, chars);
+			return chars;
+		}
 		ByteBuffer byteBuffer = ByteBuffer.wrap(array);
 		CharBuffer charBuffer = StandardCharsets.US_ASCII.decode(byteBuffer);
 		char[] chars = Arrays.copyOfRange(charBuffer.array(), charBuffer.position(), charBuffer.limit());
-		Arrays.fill(charBuffer.array(), (char) 0);
+		wipe(charBuffer.array());
 		return chars;
 	}
-}
+}
\ No newline at end of file
@@ -0,0 +1,384 @@
+package tibetiroka.pwgen;
+
+import lombok.NonNull;
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import tibetiroka.pwgen.version.VersionManager;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.InvalidKeyException;
+import java.security.NoSuchAlgorithmException;
+import java.security.Security;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Generates passwords for large lists of credentials using several worker processes. The input file contains one {@code site<TAB>username} pair per line; the output file receives the same lines with the generated password appended after another tab, in the original order.
+ * <p>
+ * The input is split into shards inside a work directory next to the output file. Every completed shard is recorded in a checkpoint file, so an interrupted run continues from the first unfinished shard when it is started again with the same output file. A run is only resumed if the master password, the generator version and the input file are the same as in the interrupted run; otherwise the interrupted run has to be discarded with {@link #discard(File)}. The input is checked before it is split, so a malformed line never leaves an unfinishable run behind. If the hash storage is enabled, a run only starts if the master password is stored with every username of the input, so that a mistyped password cannot produce a whole file of wrong passwords.
+ */
+public class BatchRunner {
+	/**
+	 * Runs a single shard. The default implementation starts a local worker process; other implementations can run the shards on remote nodes.
+	 */
+	@FunctionalInterface
+	public interface Transport {
+		/**
+		 * Generates the passwords for a shard. The output file must only appear once the shard is complete.
+		 *
+		 * @param version  The name of the generator version
+		 * @param password The master password
+		 * @param input    The shard's input file
+		 * @param output   The shard's output file
+		 * @throws Exception If the shard cannot be completed
+		 */
+		void run(@NonNull String version, @NonNull byte[] password, @NonNull File input, @NonNull File output) throws Exception;
+	}
+	
+	/**
+	 * Runs the shards in worker processes on the local machine. The master password is sent to the workers through their standard input.
+	 */
+	public static final Transport LOCAL_PROCESS = (version, password, input, output) -> {
+		String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+		List<String> command = new ArrayList<>(List.of(java, "-cp", System.getProperty("java.class.path")));
+		if(ArrayUtils.isVectorized()) {
+			command.addAll(List.of("--add-modules", "jdk.incubator.vector"));
+		}
+		command.addAll(List.of(BatchRunner.class.getName(), version, input.getPath(), output.getPath()));
+		Process process = new ProcessBuilder(command).redirectOutput(ProcessBuilder.Redirect.INHERIT).redirectError(ProcessBuilder.Redirect.INHERIT).start();
+		byte[] encoded = Base64.getEncoder().encode(password);
+		try(OutputStream stream = process.getOutputStream()) {
+			stream.write(encoded);
+			stream.write('\n');
+		} finally {
+			ArrayUtils.wipe(encoded);
+		}
+		int exit = process.waitFor();
+		if(exit != 0) {
+			throw new IOException("Worker for " + input.getName() + " exited with code " + exit);
+		}
+	};
+	
+	/**
+	 * Generates the passwords for all credentials in the input file. Uses {@link Configuration#getBatchWorkers()} concurrent workers and {@link Configuration#getBatchShardSize()} credentials per shard.
+	 *
+	 * @param generator The generator to use
+	 * @param password  The master password
+	 * @param input     The file listing the credentials
+	 * @param output    The file to write the results to
+	 * @param transport The transport running the shards
+	 * @return True if every shard was completed and the results were merged
+	 * @throws Exception If the work files cannot be read or written, the credentials cannot be checked, or the run is interrupted
+	 */
+	public static boolean run(@NonNull PasswordGenerator generator, @NonNull byte[] password, @NonNull File input, @NonNull File output, @NonNull Transport transport) throws Exception {
+		File workDir = new File(output.getPath() + ".shards");
+		File checkpoint = new File(workDir, "checkpoint");
+		File fingerprintFile = new File(workDir, "fingerprint");
+		Properties fingerprint = createFingerprint(generator, password, input);
+		int shards;
+		if(checkpoint.exists()) {
+			Properties stored = new Properties();
+			if(fingerprintFile.exists()) {
+				try(FileInputStream stream = new FileInputStream(fingerprintFile)) {
+					stored.load(stream);
+				}
+			}
+			if(!stored.equals(fingerprint)) {
+				System.err.println("The interrupted batch in " + workDir + " was started with a different password, generator version or input file; refusing to resume");
+				System.err.println("Run again with pwgen.batch.restart=true, or delete " + workDir + ", to start over");
+				return false;
+			}
+			shards = countShards(workDir);
+			System.out.println("Resuming batch from " + workDir);
+		} else {
+			if(!checkInput(input, password)) {
+				return false;
+			}
+			shards = split(input, workDir);
+			try(FileOutputStream stream = new FileOutputStream(fingerprintFile)) {
+				fingerprint.store(stream, "Batch fingerprint");
+				stream.getFD().sync();
+			}
+			Files.createFile(checkpoint.toPath());
+		}
+		Set<Integer> completed = new HashSet<>();
+		for(String line : Files.readAllLines(checkpoint.toPath(), StandardCharsets.US_ASCII)) {
+			if(!line.isBlank()) {
+				completed.add(Integer.parseInt(line.trim()));
+			}
+		}
+		System.out.println("Processing " + (shards - completed.size()) + " of " + shards + " shards");
+		//
+		ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, Configuration.getBatchWorkers()));
+		List<Future<?>> futures = new ArrayList<>();
+		try(FileChannel checkpointChannel = FileChannel.open(checkpoint.toPath(), StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+			for(int shard = 0; shard < shards; shard++) {
+				if(completed.contains(shard)) {
+					continue;
+				}
+				int current = shard;
+				futures.add(executor.submit(() -> {
+					transport.run(generator.getVersionName(), password, getShardFile(workDir, current, "in"), getShardFile(workDir, current, "out"));
+					synchronized(checkpointChannel) {
+						checkpointChannel.write(StandardCharsets.US_ASCII.encode(current + "\n"));
+						checkpointChannel.force(false);
+					}
+					return null;
+				}));
+			}
+			boolean failed = false;
+			for(Future<?> future : futures) {
+				try {
+					future.get();
+				} catch(Exception e) {
+					System.err.println("Shard failed: " + e.getMessage());
+					failed = true;
+				}
+			}
+			if(failed) {
+				System.err.println("Some shards have failed; run the batch again to resume");
+				return false;
+			}
+		} finally {
+			executor.shutdownNow();
+		}
+		//
+		File temp = new File(output.getPath() + ".tmp");
+		try(FileChannel target = FileChannel.open(temp.toPath(), StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+			for(int shard = 0; shard < shards; shard++) {
+				try(FileChannel source = FileChannel.open(getShardFile(workDir, shard, "out").toPath(), StandardOpenOption.READ)) {
+					long size = source.size();
+					for(long position = 0; position < size; ) {
+						position += source.transferTo(position, size - position, target);
+					}
+				}
+			}
+		}
+		Files.move(temp.toPath(), output.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		deleteWorkDir(workDir);
+		System.out.println("Batch completed");
+		return true;
+	}
+	
+	/**
+	 * Discards the interrupted run writing to the specified output file, including the passwords generated so far, so that the next run starts over.
+	 *
+	 * @param output The file the interrupted run writes to
+	 */
+	public static void discard(@NonNull File output) {
+		File workDir = new File(output.getPath() + ".shards");
+		if(workDir.exists()) {
+			deleteWorkDir(workDir);
+			System.out.println("Discarded the interrupted batch in " + workDir);
+		}
+	}
+	
+	/**
+	 * Deletes a work directory and everything in it.
+	 *
+	 * @param workDir The directory of the shards
+	 */
+	private static void deleteWorkDir(@NonNull File workDir) {
+		File[] files = workDir.listFiles();
+		if(files != null) {
+			for(File file : files) {
+				file.delete();
+			}
+		}
+		workDir.delete();
+	}
+	
+	/**
+	 * Creates the fingerprint identifying a batch run. The master password is only included as a MAC, so the fingerprint does not reveal it.
+	 *
+	 * @param generator The generator to use
+	 * @param password  The master password
+	 * @param input     The file listing the credentials
+	 * @return The fingerprint
+	 * @throws IOException              If the attributes of the input file cannot be read
+	 * @throws NoSuchAlgorithmException If HmacSHA256 is not supported
+	 * @throws InvalidKeyException      If the password cannot be used as a MAC key
+	 */
+	private static @NonNull Properties createFingerprint(@NonNull PasswordGenerator generator, @NonNull byte[] password, @NonNull File input) throws IOException, NoSuchAlgorithmException, InvalidKeyException {
+		Mac mac = Mac.getInstance("HmacSHA256");
+		mac.init(new SecretKeySpec(password, "HmacSHA256"));
+		byte[] tag = mac.doFinal(("pwgen.batch." + generator.getVersionName()).getBytes(StandardCharsets.UTF_8));
+		BasicFileAttributes attributes = Files.readAttributes(input.toPath(), BasicFileAttributes.class);
+		Properties fingerprint = new Properties();
+		fingerprint.setProperty("version", generator.getVersionName());
+		fingerprint.setProperty("password", ArrayUtils.toBase64String(tag));
+		fingerprint.setProperty("inputSize", Long.toString(attributes.size()));
+		fingerprint.setProperty("inputModified", Long.toString(attributes.lastModifiedTime().toMillis()));
+		return fingerprint;
+	}
+	
+	/**
+	 * Checks that every non-blank line of the input file is a {@code site<TAB>username} pair. Invalid lines are reported with their line numbers. If the hash storage is enabled, the master password is also checked with every distinct username, the same way as in interactive mode.
+	 *
+	 * @param input    The file listing the credentials
+	 * @param password The master password
+	 * @return True if the input is valid and all credentials are known
+	 * @throws Exception If the file cannot be read or the hashes cannot be generated
+	 */
+	private static boolean checkInput(@NonNull File input, @NonNull byte[] password) throws Exception {
+		boolean valid = true;
+		Set<String> usernames = new LinkedHashSet<>();
+		try(BufferedReader reader = Files.newBufferedReader(input.toPath(), StandardCharsets.UTF_8)) {
+			int number = 1;
+			for(String line = reader.readLine(); line != null; line = reader.readLine(), number++) {
+				if(line.isBlank()) {
+					continue;
+				}
+				String[] parts = line.split("\t", 2);
+				if(parts.length != 2) {
+					System.err.println("Invalid line " + number + " in " + input + ": expected site and username separated by a tab");
+					valid = false;
+				} else {
+					usernames.add(parts[1]);
+				}
+			}
+		}
+		if(!valid || !Configuration.isUseHashStorage()) {
+			return valid;
+		}
+		for(String username : usernames) {
+			byte[] usernameBytes = PasswordGenerator.secureRandomBytes(username.getBytes(StandardCharsets.UTF_8), 256);
+			try {
+				if(!CredentialManager.verifyCredentials(usernameBytes, password)) {
+					System.err.println("Unknown username/password combination for " + username + "; save it in interactive mode first");
+					valid = false;
+				}
+			} finally {
+				ArrayUtils.wipe(usernameBytes);
+			}
+		}
+		return valid;
+	}
+	
+	/**
+	 * Splits the input file into shards.
+	 *
+	 * @param input   The file listing the credentials
+	 * @param workDir The directory of the shards
+	 * @return The number of shards
+	 * @throws IOException If the files cannot be read or written
+	 */
+	private static int split(@NonNull File input, @NonNull File workDir) throws IOException {
+		Files.createDirectories(workDir.toPath());
+		int shards = 0;
+		int lines = 0;
+		BufferedWriter writer = null;
+		try(BufferedReader reader = Files.newBufferedReader(input.toPath(), StandardCharsets.UTF_8)) {
+			for(String line = reader.readLine(); line != null; line = reader.readLine()) {
+				if(line.isBlank()) {
+					continue;
+				}
+				if(writer == null || lines == Configuration.getBatchShardSize()) {
+					if(writer != null) {
+						writer.close();
+					}
+					writer = Files.newBufferedWriter(getShardFile(workDir, shards++, "in").toPath(), StandardCharsets.UTF_8);
+					lines = 0;
+				}
+				writer.write(line);
+				writer.newLine();
+				lines++;
+			}
+		} finally {
+			if(writer != null) {
+				writer.close();
+			}
+		}
+		return shards;
+	}
+	
+	/**
+	 * Counts the shards of an existing work directory.
+	 *
+	 * @param workDir The directory of the shards
+	 * @return The number of shards
+	 */
+	private static int countShards(@NonNull File workDir) {
+		int shards = 0;
+		while(getShardFile(workDir, shards, "in").exists()) {
+			shards++;
+		}
+		return shards;
+	}
+	
+	/**
+	 * Gets a file belonging to the specified shard.
+	 *
+	 * @param workDir   The directory of the shards
+	 * @param shard     The number of the shard
+	 * @param extension The type of the file
+	 * @return The file
+	 */
+	private static @NonNull File getShardFile(@NonNull File workDir, int shard, @NonNull String extension) {
+		return new File(workDir, "shard_" + shard + "." + extension);
+	}
+	
+	/**
+	 * Entry point of the worker processes. Expects the generator version, the shard's input file and the shard's output file as arguments, and the base64-encoded master password on the standard input.
+	 *
+	 * @param args The arguments
+	 * @throws Exception If the shard cannot be completed
+	 */
+	public static void main(String[] args) throws Exception {
+		Security.setProperty("crypto.policy", "unlimited");
+		Security.addProvider(new BouncyCastleProvider());
+		PasswordGenerator generator = VersionManager.getGenerator(args[0]);
+		if(generator == null) {
+			System.err.println("Unknown version " + args[0]);
+			System.exit(1);
+		}
+		String encoded = new BufferedReader(new InputStreamReader(System.in, StandardCharsets.US_ASCII)).readLine();
+		byte[] password = Base64.getDecoder().decode(encoded);
+		File output = new File(args[2]);
+		File temp = new File(args[2] + ".tmp");
+		try(BufferedReader reader = Files.newBufferedReader(new File(args[1]).toPath(), StandardCharsets.UTF_8); BufferedWriter writer = Files.newBufferedWriter(temp.toPath(), StandardCharsets.UTF_8)) {
+			for(String line = reader.readLine(); line != null; line = reader.readLine()) {
+				String[] parts = line.split("\t", 2);
+				if(parts.length != 2) {
+					throw new IOException("Invalid line in " + args[1] + ": expected site and username separated by a tab");
+				}
+				byte[] site = PasswordGenerator.secureRandomBytes(parts[0].getBytes(StandardCharsets.UTF_8), 256);
+				byte[] username = PasswordGenerator.secureRandomBytes(parts[1].getBytes(StandardCharsets.UTF_8), 256);
+				byte[] result = generator.generate(password, site, username);
+				writer.write(line);
+				writer.write('\t');
+				writer.write(ArrayUtils.toCharArray(result));
+				writer.newLine();
+				ArrayUtils.wipe(result);
+			}
+		} catch(Exception e) {
+			temp.delete();//never leave partial plaintext results behind
+			throw e;
+		} finally {
+			ArrayUtils.wipe(password);
+		}
+		Files.move(temp.toPath(), output.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+}
@@ -0,0 +1,63 @@
+package tibetiroka.pwgen;
+
+import lombok.NonNull;
+
+/**
+ * The low-level byte operations used by the generators and the utilities. The implementation is chosen when {@link ArrayUtils} is loaded: the vectorized implementation if the {@code jdk.incubator.vector} module is available, the scalar implementation otherwise.
+ */
+interface ByteKernels {
+	/**
+	 * XORs the input with the key, repeating the key as needed, and writes the result to the output.
+	 *
+	 * @param input  The input
+	 * @param key    The key
+	 * @param output The output, at least as long as the input; might be the input itself
+	 */
+	void xor(@NonNull byte[] input, @NonNull byte[] key, @NonNull byte[] output);
+	
+	/**
+	 * Overwrites the array with zeroes.
+	 *
+	 * @param array The array
+	 */
+	void wipe(@NonNull byte[] array);
+	
+	/**
+	 * Overwrites the array with zeroes.
+	 *
+	 * @param array The array
+	 */
+	void wipe(@NonNull char[] array);
+	
+	/**
+	 * Checks whether every byte is in the US_ASCII range.
+	 *
+	 * @param array The bytes
+	 * @return True if the bytes are ASCII
+	 */
+	boolean isAscii(@NonNull byte[] array);
+	
+	/**
+	 * Checks whether every char is in the US_ASCII range.
+	 *
+	 * @param array The chars
+	 * @return True if the chars are ASCII
+	 */
+	boolean isAscii(@NonNull char[] array);
+	
+	/**
+	 * Converts ASCII bytes to chars.
+	 *
+	 * @param input  The ASCII bytes
+	 * @param output The chars, at least as long as the input
+	 */
+	void widen(@NonNull byte[] input, @NonNull char[] output);
+	
+	/**
+	 * Converts ASCII chars to bytes.
+	 *
+	 * @param input  The ASCII chars
+	 * @param output The bytes, at least as long as the input
+	 */
+	void narrow(@NonNull char[] input, @NonNull byte[] output);
+}
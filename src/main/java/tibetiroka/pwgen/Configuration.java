@@ -19,6 +19,12 @@ public class Configuration {
 	@Getter
 	@Setter
 	private static boolean useHashStorage = true;
+	/**
+	 * Whether to check the hash storages of all security levels when verifying credentials. Credentials found at another level are saved to the current level, which helps migrating to a new security level.
+	 */
+	@Getter
+	@Setter
+	private static boolean verifyAllLevels = false;
 	/**
 	 * Whether to force a safe console for password input. Safe consoles support echo-less input.
 	 */
@@ -55,6 +61,42 @@ public class Configuration {
 	@Getter
 	@Setter
 	private static boolean echoPassword = true;
+	/**
+	 * The file to write the created password to when it is generated, such as a named pipe or {@code /dev/fd/3}, or null to disable
+	 */
+	@Getter
+	@Setter
+	private static String passwordOutputFile = null;
+	/**
+	 * Whether to cache the generated passwords on the disk. Only credentials that are verified by the hash storage are cached.
+	 */
+	@Getter
+	@Setter
+	private static boolean useDerivationCache = false;
+	/**
+	 * The number of seconds a cached password is kept for
+	 */
+	@Getter
+	@Setter
+	private static long derivationCacheTtl = 24 * 60 * 60;
+	/**
+	 * The number of passwords the cache can hold. Only used when the cache file is created.
+	 */
+	@Getter
+	@Setter
+	private static int derivationCacheSize = 256;
+	/**
+	 * The number of worker processes used in batch mode
+	 */
+	@Getter
+	@Setter
+	private static int batchWorkers = Runtime.getRuntime().availableProcessors();
+	/**
+	 * The number of credentials in a single shard in batch mode. Progress is saved after every completed shard.
+	 */
+	@Getter
+	@Setter
+	private static int batchShardSize = 100;
 	
 	/**
 	 * The list of supported security levels.
@@ -2,67 +2,92 @@ package tibetiroka.pwgen;
 
 import lombok.NonNull;
 import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import tibetiroka.pwgen.Configuration.SecurityLevel;
 
 import javax.crypto.BadPaddingException;
 import javax.crypto.Cipher;
 import javax.crypto.IllegalBlockSizeException;
 import javax.crypto.NoSuchPaddingException;
-import java.io.BufferedReader;
 import java.io.File;
-import java.io.FileReader;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.StandardOpenOption;
 import java.security.InvalidKeyException;
-import java.security.KeyFactory;
 import java.security.KeyPairGenerator;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.security.NoSuchProviderException;
 import java.security.PublicKey;
 import java.security.SecureRandom;
-import java.security.interfaces.RSAPublicKey;
-import java.security.spec.EncodedKeySpec;
-import java.security.spec.X509EncodedKeySpec;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Manages storing login credentials on the system. The actual credentials are never stored for obvious safety reasons, however salts might be stored to provide basic error correction capabilities.
  */
 public class CredentialManager {
+	/**
+	 * Saves the hashes of credentials found at other security levels. Migrations are run one at a time on a single worker, which is not a daemon so that pending migrations finish before the process exits, and which stops once it has been idle for a second.
+	 */
+	private static final ThreadPoolExecutor migrationExecutor = new ThreadPoolExecutor(1, 1, 1, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), task -> new Thread(task, "hash-migration"));
+	
+	static {
+		migrationExecutor.allowCoreThreadTimeOut(true);
+	}
+	
 	/**
 	 * Gets the file where the credential hashes are stored.
 	 *
 	 * @return The hash file
 	 */
 	private static @NonNull File getHashFile() {
-		return new File("hashes_" + Configuration.getHashSecurity().name().toLowerCase() + ".dat");
+		return getHashFile(Configuration.getHashSecurity());
+	}
+	
+	/**
+	 * Gets the file where the credential hashes of the specified security level are stored.
+	 *
+	 * @param level The security level
+	 * @return The hash file
+	 */
+	static @NonNull File getHashFile(@NonNull SecurityLevel level) {
+		return new File("hashes_" + level.name().toLowerCase() + ".dat");
+	}
+	
+	/**
+	 * Gets the file where the public key of the specified security level is stored.
+	 *
+	 * @param level The security level
+	 * @return The key file
+	 */
+	static @NonNull File getKeyFile(@NonNull SecurityLevel level) {
+		return new File("public_" + level.name().toLowerCase() + ".x509");
 	}
 	
 	/**
-	 * Gets the encryption key that is used for storing password hashes. If no such key is found, a new key is created and stored.
+	 * Gets the encryption key that is used for storing password hashes. The key is cached by the {@link StoreRegistry}. If no such key is found, a new key is created and stored.
 	 *
 	 * @return The encryption key
 	 */
 	private static @NonNull PublicKey getEncryptionKey() {
-		File keyFile = new File("public_" + Configuration.getHashSecurity().name().toLowerCase() + ".x509");
-		if(keyFile.exists()) {
-			try {
-				byte[] publicKeyBytes = Files.readAllBytes(keyFile.toPath());
-				KeyFactory keyFactory = KeyFactory.getInstance("RSA", BouncyCastleProvider.PROVIDER_NAME);
-				EncodedKeySpec publicKeySpec = new X509EncodedKeySpec(publicKeyBytes);
-				PublicKey key = keyFactory.generatePublic(publicKeySpec);
-				if(key instanceof RSAPublicKey rsaKey) {
-					if(rsaKey.getModulus().bitLength() == Configuration.getHashSecurity().getRsaKeySize()) {
-						return key;
-					}
-					System.err.println("Invalid key found for hash storage");
-				}
-			} catch(Exception e) {
-				e.printStackTrace();
-			}
-		} else {
-			System.out.println("No encryption key found for hash storage");
+		PublicKey cached = StoreRegistry.getKey(Configuration.getHashSecurity());
+		if(cached != null) {
+			return cached;
 		}
+		File keyFile = getKeyFile(Configuration.getHashSecurity());
 		keyFile.delete();
 		getHashFile().delete();
 		try {
@@ -93,16 +118,105 @@ public class CredentialManager {
 	 * @throws IOException If the hash storage file is not present or cannot be read from
 	 */
 	public static boolean verifyHash(@NonNull String hash) throws IOException {
-		if(!getHashFile().exists()) {
-			return false;
+		return StoreRegistry.containsHash(Configuration.getHashSecurity(), hash);
+	}
+	
+	/**
+	 * Checks whether the specified credentials are stored in the hash storage. If {@link Configuration#isVerifyAllLevels()} is set, the hash storages of all security levels are checked concurrently, and credentials found at another level are saved to the current level in the background. If the current level has no key yet, it is generated first, before the credentials are accepted.
+	 *
+	 * @param username The username
+	 * @param password The password
+	 * @return True if the credentials are known
+	 * @throws Exception If the hashes cannot be generated or the hash storage cannot be read
+	 */
+	public static boolean verifyCredentials(@NonNull byte[] username, @NonNull byte[] password) throws Exception {
+		if(!Configuration.isVerifyAllLevels()) {
+			return verifyHash(generateHash(username, password));
+		}
+		SecurityLevel level = findLevel(username, password);
+		if(level != null && level != Configuration.getHashSecurity()) {
+			System.out.println("Found the credentials in the " + level.name().toLowerCase() + " hash storage, saving them to the " + Configuration.getHashSecurity().name().toLowerCase() + " hash storage");
+			//a missing key is generated here rather than in the background, so that the hash file it replaces cannot be deleted while a migration is appending to it
+			saveHashInBackground(Configuration.getHashSecurity(), getEncryptionKey(), username, password);
+		}
+		return level != null;
+	}
+	
+	/**
+	 * Finds a security level whose hash storage contains the specified credentials. Every level with a key and a hash file is checked in its own thread, and the first match is returned.
+	 *
+	 * @param username The username
+	 * @param password The password
+	 * @return The security level, or null if the credentials are not stored at any level
+	 * @throws InterruptedException If the search is interrupted
+	 */
+	public static SecurityLevel findLevel(@NonNull byte[] username, @NonNull byte[] password) throws InterruptedException {
+		List<SecurityLevel> levels = new ArrayList<>();
+		for(SecurityLevel level : StoreRegistry.getAvailableLevels()) {
+			if(getHashFile(level).exists()) {
+				levels.add(level);
+			}
 		}
-		BufferedReader reader = new BufferedReader(new FileReader(getHashFile()));
-		for(String line = reader.readLine(); line != null; line = reader.readLine()) {
-			if(hash.equals(line)) {
-				return true;
+		if(levels.isEmpty()) {
+			return null;
+		}
+		ExecutorService executor = Executors.newFixedThreadPool(levels.size(), task -> {
+			Thread thread = new Thread(task, "hash-verification");
+			thread.setDaemon(true);//the remaining levels are abandoned once a match is found
+			return thread;
+		});
+		try {
+			CompletionService<SecurityLevel> service = new ExecutorCompletionService<>(executor);
+			for(SecurityLevel level : levels) {
+				service.submit(() -> {
+					PublicKey key = StoreRegistry.getKey(level);
+					if(key == null) {
+						return null;
+					}
+					return StoreRegistry.containsHash(level, generateHash(level, key, username, password)) ? level : null;
+				});
+			}
+			for(int i = 0; i < levels.size(); i++) {
+				try {
+					SecurityLevel level = service.take().get();
+					if(level != null) {
+						return level;
+					}
+				} catch(ExecutionException e) {
+					e.getCause().printStackTrace();
+				}
 			}
+			return null;
+		} finally {
+			executor.shutdownNow();
 		}
-		return false;
+	}
+	
+	/**
+	 * Saves the hash of the specified credentials to the hash storage of the specified security level in the background. The process does not exit until the hash is saved.
+	 *
+	 * @param level    The security level
+	 * @param key      The encryption key of the security level
+	 * @param username The username
+	 * @param password The password
+	 * @return The pending migration
+	 */
+	public static @NonNull Future<?> saveHashInBackground(@NonNull SecurityLevel level, @NonNull PublicKey key, @NonNull byte[] username, @NonNull byte[] password) {
+		byte[] usernameCopy = username.clone();
+		byte[] passwordCopy = password.clone();
+		return migrationExecutor.submit(() -> {
+			try {
+				String hash = generateHash(level, key, usernameCopy, passwordCopy);
+				if(!StoreRegistry.containsHash(level, hash)) {
+					saveHash(level, hash);
+				}
+			} catch(Exception e) {
+				e.printStackTrace();
+			} finally {
+				ArrayUtils.wipe(usernameCopy);
+				ArrayUtils.wipe(passwordCopy);
+			}
+		});
 	}
 	
 	/**
@@ -111,10 +225,22 @@ public class CredentialManager {
 	 * @param hash The hash to save
 	 */
 	public static void saveHash(@NonNull String hash) throws IOException {
-		if(!getHashFile().exists()) {
-			getHashFile().createNewFile();
+		saveHash(Configuration.getHashSecurity(), hash);
+	}
+	
+	/**
+	 * Saves the specified hash to the hash storage of the specified security level. It is assumed that the hash is not already present in the file.
+	 *
+	 * @param level The security level
+	 * @param hash  The hash to save
+	 */
+	private static void saveHash(@NonNull SecurityLevel level, @NonNull String hash) throws IOException {
+		ByteBuffer buffer = StandardCharsets.US_ASCII.encode(hash + System.lineSeparator());
+		try(FileChannel channel = FileChannel.open(getHashFile(level).toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND); FileLock ignored = channel.lock()) {//the same lock as the synchronization
+			while(buffer.hasRemaining()) {
+				channel.write(buffer);
+			}
 		}
-		Files.writeString(getHashFile().toPath(), hash + System.lineSeparator(), StandardOpenOption.APPEND);
 	}
 	
 	/**
@@ -131,9 +257,28 @@ public class CredentialManager {
 	 * @throws InvalidKeyException       If the key is not appropriate for the cipher
 	 */
 	public static @NonNull String generateHash(@NonNull byte[] username, @NonNull byte[] password) throws NoSuchAlgorithmException, NoSuchProviderException, NoSuchPaddingException, IllegalBlockSizeException, BadPaddingException, InvalidKeyException {
+		return generateHash(Configuration.getHashSecurity(), getEncryptionKey(), username, password);
+	}
+	
+	/**
+	 * Generates a secure hash from the specified username and password for the specified security level.
+	 *
+	 * @param level    The security level
+	 * @param key      The encryption key of the security level
+	 * @param username The username
+	 * @param password The password
+	 * @return The hash
+	 * @throws NoSuchAlgorithmException  If RSA, SHA3-256 or SHA1PRNG is not supported
+	 * @throws NoSuchProviderException   If BouncyCastle is not found
+	 * @throws NoSuchPaddingException    If textbook RSA is not supported
+	 * @throws IllegalBlockSizeException If the RSA block site is not supported
+	 * @throws BadPaddingException       If the code has gone mad
+	 * @throws InvalidKeyException       If the key is not appropriate for the cipher
+	 */
+	private static @NonNull String generateHash(@NonNull SecurityLevel level, @NonNull PublicKey key, @NonNull byte[] username, @NonNull byte[] password) throws NoSuchAlgorithmException, NoSuchProviderException, NoSuchPaddingException, IllegalBlockSizeException, BadPaddingException, InvalidKeyException {
 		SecureRandom saltRandom = SecureRandom.getInstance("SHA1PRNG");
 		saltRandom.setSeed(username);
-		byte[] salt = new byte[Configuration.getHashSecurity().getHashSaltSize()];
+		byte[] salt = new byte[level.getHashSaltSize()];
 		saltRandom.nextBytes(salt);
 		//
 		SecureRandom pwRandom = SecureRandom.getInstance("SHA1PRNG");
@@ -149,7 +294,7 @@ public class CredentialManager {
 		byte[] bytes = digest.digest(salt);
 		//
 		Cipher cipher = Cipher.getInstance("RSA", BouncyCastleProvider.PROVIDER_NAME);
-		cipher.init(Cipher.PUBLIC_KEY, getEncryptionKey());
+		cipher.init(Cipher.PUBLIC_KEY, key);
 		bytes = cipher.doFinal(bytes);
 		//
 		return ArrayUtils.toBase64String(bytes);
@@ -0,0 +1,365 @@
+package tibetiroka.pwgen;
+
+import lombok.NonNull;
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+
+import javax.crypto.BadPaddingException;
+import javax.crypto.Cipher;
+import javax.crypto.IllegalBlockSizeException;
+import javax.crypto.Mac;
+import javax.crypto.NoSuchPaddingException;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.security.InvalidAlgorithmParameterException;
+import java.security.InvalidKeyException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.NoSuchProviderException;
+import java.security.SecureRandom;
+
+/**
+ * Caches generated passwords on the disk, so that frequently used credentials do not need to go through the whole generator chain on every lookup. The cache is only used if {@link Configuration#isUseDerivationCache()} is set.
+ * <p>
+ * Every entry is encrypted with AES-GCM under a key derived from the master password, and is indexed by an HMAC of the generator version, the site and the username under another key derived from the master password. Entries are therefore useless without the master password, and become unreachable as soon as it changes. The entries are stored in fixed-size slots of a single memory-mapped file, and are evicted when their time to live expires or, if the cache is full, in least recently used order.
+ */
+public class DerivationCache {
+	/**
+	 * Identifies the cache file format
+	 */
+	private static final int MAGIC = 0x50574443;
+	/**
+	 * The size of the file header: the magic number and the number of slots
+	 */
+	private static final int HEADER_SIZE = 8;
+	/**
+	 * The length of the index MACs
+	 */
+	private static final int INDEX_SIZE = 32;
+	/**
+	 * The length of the AES-GCM nonces
+	 */
+	private static final int NONCE_SIZE = 12;
+	/**
+	 * The length of the AES-GCM authentication tags
+	 */
+	private static final int TAG_SIZE = 16;
+	/**
+	 * The longest password that can be cached
+	 */
+	private static final int MAX_PASSWORD_SIZE = 64;
+	/**
+	 * The size of a single slot: used flag, index, creation time, last access time, nonce, ciphertext length and ciphertext, padded to 8 bytes
+	 */
+	private static final int SLOT_SIZE = 160;
+	/*
+	 * Offsets of the fields inside a slot
+	 */
+	private static final int OFFSET_INDEX = 1;
+	private static final int OFFSET_CREATED = OFFSET_INDEX + INDEX_SIZE;
+	private static final int OFFSET_ACCESSED = OFFSET_CREATED + 8;
+	private static final int OFFSET_NONCE = OFFSET_ACCESSED + 8;
+	private static final int OFFSET_LENGTH = OFFSET_NONCE + NONCE_SIZE;
+	private static final int OFFSET_DATA = OFFSET_LENGTH + 2;
+	/**
+	 * Separates the cache keys from any other use of the master password
+	 */
+	private static final byte[] KEY_DOMAIN = "pwgen.derivationCache".getBytes(StandardCharsets.US_ASCII);
+	
+	/**
+	 * Gets the file where the cached passwords are stored.
+	 *
+	 * @return The cache file
+	 */
+	private static @NonNull File getCacheFile() {
+		return new File("derivation_cache.dat");
+	}
+	
+	/**
+	 * Derives the cache key from the master password. The first half of the key encrypts the entries, the second half authenticates the indices. The key should be cleared by the caller once it is no longer needed.
+	 *
+	 * @param password The master password
+	 * @return The cache key
+	 * @throws NoSuchAlgorithmException If SHA3-512 is not supported
+	 * @throws NoSuchProviderException  If BouncyCastle is not found
+	 */
+	public static @NonNull byte[] deriveKey(@NonNull byte[] password) throws NoSuchAlgorithmException, NoSuchProviderException {
+		MessageDigest digest = MessageDigest.getInstance("SHA3-512", BouncyCastleProvider.PROVIDER_NAME);
+		digest.update(KEY_DOMAIN);
+		return digest.digest(password);
+	}
+	
+	/**
+	 * Looks up a cached password. The cache only saves time, so a cache file that cannot be read is reported and treated as a miss.
+	 *
+	 * @param key      The cache key from {@link #deriveKey(byte[])}
+	 * @param version  The name of the generator version
+	 * @param site     The site the password is used for
+	 * @param username The name of the user on the site
+	 * @return The cached password, or null if it is not cached or the cache cannot be read
+	 */
+	public static byte[] lookup(@NonNull byte[] key, @NonNull String version, @NonNull byte[] site, @NonNull byte[] username) {
+		try {
+			return read(key, version, site, username);
+		} catch(Exception e) {
+			System.err.println("The derivation cache could not be read: " + e);
+			return null;
+		}
+	}
+	
+	/**
+	 * Looks up a cached password. Expired entries are removed when they are found.
+	 *
+	 * @param key      The cache key from {@link #deriveKey(byte[])}
+	 * @param version  The name of the generator version
+	 * @param site     The site the password is used for
+	 * @param username The name of the user on the site
+	 * @return The cached password, or null if it is not cached
+	 * @throws IOException               If the cache file cannot be read or written
+	 * @throws NoSuchAlgorithmException  If HmacSHA256 or AES-GCM is not supported
+	 * @throws NoSuchProviderException   If BouncyCastle is not found
+	 * @throws NoSuchPaddingException    If AES-GCM is not supported
+	 * @throws InvalidKeyException       If the key is not appropriate for the cipher
+	 * @throws InvalidAlgorithmParameterException If the nonce is not appropriate for the cipher
+	 * @throws IllegalBlockSizeException If the code has gone mad
+	 */
+	private static byte[] read(@NonNull byte[] key, @NonNull String version, @NonNull byte[] site, @NonNull byte[] username) throws IOException, NoSuchAlgorithmException, NoSuchProviderException, NoSuchPaddingException, InvalidKeyException, InvalidAlgorithmParameterException, IllegalBlockSizeException {
+		if(!getCacheFile().exists()) {
+			return null;
+		}
+		byte[] index = index(key, version, site, username);
+		try(FileChannel channel = FileChannel.open(getCacheFile().toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE); FileLock ignored = channel.lock()) {
+			MappedByteBuffer buffer = map(channel);
+			if(buffer == null) {
+				return null;
+			}
+			long now = System.currentTimeMillis();
+			int slot = findSlot(buffer, index);
+			if(slot == -1) {
+				return null;
+			}
+			int base = HEADER_SIZE + slot * SLOT_SIZE;
+			if(isExpired(buffer, base, now)) {
+				clearSlot(buffer, base);
+				buffer.force();
+				return null;
+			}
+			byte[] nonce = new byte[NONCE_SIZE];
+			buffer.get(base + OFFSET_NONCE, nonce);
+			int length = buffer.getShort(base + OFFSET_LENGTH);
+			if(length < 0 || length > SLOT_SIZE - OFFSET_DATA) {//corrupted slot
+				clearSlot(buffer, base);
+				buffer.force();
+				return null;
+			}
+			byte[] data = new byte[length];
+			buffer.get(base + OFFSET_DATA, data);
+			Cipher cipher = Cipher.getInstance("AES/GCM/NoPadding", BouncyCastleProvider.PROVIDER_NAME);
+			cipher.init(Cipher.DECRYPT_MODE, new SecretKeySpec(key, 0, 32, "AES"), new GCMParameterSpec(TAG_SIZE * 8, nonce));
+			cipher.updateAAD(index);
+			byte[] result;
+			try {
+				result = cipher.doFinal(data);
+			} catch(BadPaddingException e) {//AEADBadTagException: the entry was tampered with
+				clearSlot(buffer, base);
+				buffer.force();
+				return null;
+			}
+			buffer.putLong(base + OFFSET_ACCESSED, now);
+			buffer.force();
+			return result;
+		}
+	}
+	
+	/**
+	 * Stores a password in the cache. The cache only saves time, so a failure to update it is reported and otherwise ignored.
+	 *
+	 * @param key      The cache key from {@link #deriveKey(byte[])}
+	 * @param version  The name of the generator version
+	 * @param site     The site the password is used for
+	 * @param username The name of the user on the site
+	 * @param password The generated password
+	 */
+	public static void store(@NonNull byte[] key, @NonNull String version, @NonNull byte[] site, @NonNull byte[] username, @NonNull byte[] password) {
+		try {
+			write(key, version, site, username, password);
+		} catch(Exception e) {
+			System.err.println("The derivation cache could not be updated: " + e);
+		}
+	}
+	
+	/**
+	 * Stores a password in the cache, replacing any previous entry for the same credentials. If the cache is full, expired entries are evicted first, then the least recently used entry.
+	 *
+	 * @param key      The cache key from {@link #deriveKey(byte[])}
+	 * @param version  The name of the generator version
+	 * @param site     The site the password is used for
+	 * @param username The name of the user on the site
+	 * @param password The generated password
+	 * @throws IOException               If the cache file cannot be read or written
+	 * @throws NoSuchAlgorithmException  If HmacSHA256 or AES-GCM is not supported
+	 * @throws NoSuchProviderException   If BouncyCastle is not found
+	 * @throws NoSuchPaddingException    If AES-GCM is not supported
+	 * @throws InvalidKeyException       If the key is not appropriate for the cipher
+	 * @throws InvalidAlgorithmParameterException If the nonce is not appropriate for the cipher
+	 * @throws IllegalBlockSizeException If the code has gone mad
+	 * @throws BadPaddingException       If the code has gone mad
+	 */
+	private static void write(@NonNull byte[] key, @NonNull String version, @NonNull byte[] site, @NonNull byte[] username, @NonNull byte[] password) throws IOException, NoSuchAlgorithmException, NoSuchProviderException, NoSuchPaddingException, InvalidKeyException, InvalidAlgorithmParameterException, IllegalBlockSizeException, BadPaddingException {
+		if(password.length > MAX_PASSWORD_SIZE || Configuration.getDerivationCacheSize() <= 0) {
+			return;
+		}
+		byte[] index = index(key, version, site, username);
+		byte[] nonce = new byte[NONCE_SIZE];
+		new SecureRandom().nextBytes(nonce);
+		Cipher cipher = Cipher.getInstance("AES/GCM/NoPadding", BouncyCastleProvider.PROVIDER_NAME);
+		cipher.init(Cipher.ENCRYPT_MODE, new SecretKeySpec(key, 0, 32, "AES"), new GCMParameterSpec(TAG_SIZE * 8, nonce));
+		cipher.updateAAD(index);
+		byte[] data = cipher.doFinal(password);
+		//
+		try(FileChannel channel = FileChannel.open(getCacheFile().toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE); FileLock ignored = channel.lock()) {
+			MappedByteBuffer buffer = map(channel);
+			if(buffer == null) {
+				channel.truncate(0);
+				buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE + (long) Configuration.getDerivationCacheSize() * SLOT_SIZE);
+				buffer.putInt(0, MAGIC);
+				buffer.putInt(4, Configuration.getDerivationCacheSize());
+			}
+			long now = System.currentTimeMillis();
+			int slot = findSlot(buffer, index);
+			if(slot == -1) {
+				slot = findFreeSlot(buffer, now);
+			}
+			int base = HEADER_SIZE + slot * SLOT_SIZE;
+			clearSlot(buffer, base);
+			buffer.put(base, (byte) 1);
+			buffer.put(base + OFFSET_INDEX, index);
+			buffer.putLong(base + OFFSET_CREATED, now);
+			buffer.putLong(base + OFFSET_ACCESSED, now);
+			buffer.put(base + OFFSET_NONCE, nonce);
+			buffer.putShort(base + OFFSET_LENGTH, (short) data.length);
+			buffer.put(base + OFFSET_DATA, data);
+			buffer.force();
+		}
+	}
+	
+	/**
+	 * Maps the cache file into memory. If the file is not a valid cache file, returns null.
+	 *
+	 * @param channel The channel of the cache file
+	 * @return The mapped file or null
+	 * @throws IOException If the file cannot be mapped
+	 */
+	private static MappedByteBuffer map(@NonNull FileChannel channel) throws IOException {
+		if(channel.size() < HEADER_SIZE) {
+			return null;
+		}
+		ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+		channel.read(header, 0);
+		int slots = header.getInt(4);
+		if(header.getInt(0) != MAGIC || slots <= 0 || channel.size() != HEADER_SIZE + (long) slots * SLOT_SIZE) {
+			return null;
+		}
+		return channel.map(FileChannel.MapMode.READ_WRITE, 0, channel.size());
+	}
+	
+	/**
+	 * Finds the slot storing the specified index.
+	 *
+	 * @param buffer The mapped cache file
+	 * @param index  The index of the entry
+	 * @return The number of the slot, or -1 if there is no such slot
+	 */
+	private static int findSlot(@NonNull MappedByteBuffer buffer, @NonNull byte[] index) {
+		int slots = buffer.getInt(4);
+		byte[] stored = new byte[INDEX_SIZE];
+		for(int slot = 0; slot < slots; slot++) {
+			int base = HEADER_SIZE + slot * SLOT_SIZE;
+			if(buffer.get(base) == 0) {
+				continue;
+			}
+			buffer.get(base + OFFSET_INDEX, stored);
+			if(MessageDigest.isEqual(stored, index)) {
+				return slot;
+			}
+		}
+		return -1;
+	}
+	
+	/**
+	 * Finds a slot for a new entry. Prefers empty slots, then expired entries, then the least recently used entry.
+	 *
+	 * @param buffer The mapped cache file
+	 * @param now    The current time
+	 * @return The number of the slot
+	 */
+	private static int findFreeSlot(@NonNull MappedByteBuffer buffer, long now) {
+		int slots = buffer.getInt(4);
+		int leastRecent = 0;
+		long leastRecentAccess = Long.MAX_VALUE;
+		for(int slot = 0; slot < slots; slot++) {
+			int base = HEADER_SIZE + slot * SLOT_SIZE;
+			if(buffer.get(base) == 0 || isExpired(buffer, base, now)) {
+				return slot;
+			}
+			long accessed = buffer.getLong(base + OFFSET_ACCESSED);
+			if(accessed < leastRecentAccess) {
+				leastRecentAccess = accessed;
+				leastRecent = slot;
+			}
+		}
+		return leastRecent;
+	}
+	
+	/**
+	 * Checks whether the entry in the specified slot has outlived {@link Configuration#getDerivationCacheTtl()}. Entries created in the future are also considered expired.
+	 *
+	 * @param buffer The mapped cache file
+	 * @param base   The offset of the slot
+	 * @param now    The current time
+	 * @return True if the entry is expired
+	 */
+	private static boolean isExpired(@NonNull MappedByteBuffer buffer, int base, long now) {
+		long created = buffer.getLong(base + OFFSET_CREATED);
+		return created > now || now - created > Configuration.getDerivationCacheTtl() * 1000;//created in the future: the clock was stepped back
+	}
+	
+	/**
+	 * Overwrites the specified slot with zeroes.
+	 *
+	 * @param buffer The mapped cache file
+	 * @param base   The offset of the slot
+	 */
+	private static void clearSlot(@NonNull MappedByteBuffer buffer, int base) {
+		buffer.put(base, new byte[SLOT_SIZE]);
+	}
+	
+	/**
+	 * Creates the index of an entry, authenticated with the second half of the cache key.
+	 *
+	 * @param key      The cache key
+	 * @param version  The name of the generator version
+	 * @param site     The site the password is used for
+	 * @param username The name of the user on the site
+	 * @return The index
+	 * @throws NoSuchAlgorithmException If HmacSHA256 is not supported
+	 * @throws NoSuchProviderException  If BouncyCastle is not found
+	 * @throws InvalidKeyException      If the key is not appropriate for the MAC
+	 */
+	private static @NonNull byte[] index(@NonNull byte[] key, @NonNull String version, @NonNull byte[] site, @NonNull byte[] username) throws NoSuchAlgorithmException, NoSuchProviderException, InvalidKeyException {
+		Mac mac = Mac.getInstance("HmacSHA256", BouncyCastleProvider.PROVIDER_NAME);
+		mac.init(new SecretKeySpec(key, 32, 32, "HmacSHA256"));
+		byte[] versionBytes = version.getBytes(StandardCharsets.UTF_8);
+		mac.update(ByteBuffer.allocate(12).putInt(versionBytes.length).putInt(site.length).putInt(username.length).array());
+		mac.update(versionBytes);
+		mac.update(site);
+		return mac.doFinal(username);
+	}
+}
@@ -0,0 +1,156 @@
+package tibetiroka.pwgen;
+
+import lombok.NonNull;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reads the records of hash files. Records are streamed and only their positions and digests are kept, as the records themselves can be very large at high security levels.
+ */
+final class HashRecords {
+	/**
+	 * A record of a hash file.
+	 *
+	 * @param offset The position of the record in the file
+	 * @param length The length of the record, without the line separator
+	 * @param digest The digest of the record
+	 */
+	record Entry(long offset, int length, @NonNull ByteBuffer digest) {
+	}
+	
+	/**
+	 * The records found in a range of a hash file.
+	 *
+	 * @param entries The records in their original order
+	 * @param end     The position after the line separator of the last complete record, or the start of the range if there is none
+	 */
+	record Scan(@NonNull List<Entry> entries, long end) {
+	}
+	
+	/**
+	 * Reads the records in the specified range of a hash file.
+	 *
+	 * @param channel        The hash file
+	 * @param start          The start of the range; must be the start of a record
+	 * @param end            The end of the range
+	 * @param includePartial Whether to include a last record that has no line separator
+	 * @return The records
+	 * @throws IOException If the file cannot be read
+	 */
+	static @NonNull Scan scan(@NonNull FileChannel channel, long start, long end, boolean includePartial) throws IOException {
+		List<Entry> entries = new ArrayList<>();
+		MessageDigest digest = newDigest();
+		ByteBuffer buffer = ByteBuffer.allocate(1 << 16);
+		long recordStart = start;
+		long completeEnd = start;
+		long position = start;
+		while(position < end) {
+			buffer.clear();
+			buffer.limit((int) Math.min(buffer.capacity(), end - position));
+			int read = channel.read(buffer, position);
+			if(read <= 0) {
+				break;
+			}
+			int chunkStart = 0;
+			for(int i = 0; i < read; i++) {
+				byte b = buffer.get(i);
+				if(b == '\n' || b == '\r') {
+					digest.update(buffer.array(), chunkStart, i - chunkStart);
+					long recordEnd = position + i;
+					if(recordEnd > recordStart) {
+						entries.add(new Entry(recordStart, Math.toIntExact(recordEnd - recordStart), ByteBuffer.wrap(digest.digest())));
+					} else {
+						digest.reset();
+					}
+					recordStart = recordEnd + 1;
+					completeEnd = recordStart;
+					chunkStart = i + 1;
+				}
+			}
+			digest.update(buffer.array(), chunkStart, read - chunkStart);
+			position += read;
+		}
+		if(includePartial && position > recordStart) {
+			entries.add(new Entry(recordStart, Math.toIntExact(position - recordStart), ByteBuffer.wrap(digest.digest())));
+		}
+		return new Scan(entries, completeEnd);
+	}
+	
+	/**
+	 * Finds the last complete record before the specified position, reading the file backwards. A partial record at the end, which has no line separator yet, is skipped.
+	 *
+	 * @param channel The hash file
+	 * @param end     The position to search back from
+	 * @return The last complete record, with the position after its line separator as the end, or an empty scan ending at the start of the file if there is none
+	 * @throws IOException If the file cannot be read
+	 */
+	static @NonNull Scan last(@NonNull FileChannel channel, long end) throws IOException {
+		ByteBuffer buffer = ByteBuffer.allocate(1 << 16);
+		long completeEnd = -1;
+		long recordEnd = -1;
+		long chunkStart = end;
+		while(chunkStart > 0) {
+			int length = (int) Math.min(buffer.capacity(), chunkStart);
+			chunkStart -= length;
+			buffer.clear();
+			buffer.limit(length);
+			for(int read = 0; read < length; ) {
+				int count = channel.read(buffer, chunkStart + read);
+				if(count < 0) {
+					throw new IOException("The hash file was truncated while it was read");
+				}
+				read += count;
+			}
+			for(int i = length - 1; i >= 0; i--) {
+				byte b = buffer.get(i);
+				boolean separator = b == '\n' || b == '\r';
+				long position = chunkStart + i;
+				if(completeEnd == -1) {
+					if(separator) {
+						completeEnd = position + 1;
+					}
+				} else if(recordEnd == -1) {
+					if(!separator) {
+						recordEnd = position + 1;
+					}
+				} else if(separator) {
+					return new Scan(List.of(scan(channel, position + 1, recordEnd, true).entries().get(0)), completeEnd);
+				}
+			}
+		}
+		if(recordEnd == -1) {
+			return new Scan(List.of(), 0);
+		}
+		return new Scan(List.of(scan(channel, 0, recordEnd, true).entries().get(0)), completeEnd);
+	}
+	
+	/**
+	 * Creates the digest of a record.
+	 *
+	 * @param record The record
+	 * @return The digest
+	 */
+	static @NonNull ByteBuffer digest(@NonNull String record) {
+		return ByteBuffer.wrap(newDigest().digest(record.getBytes(StandardCharsets.US_ASCII)));
+	}
+	
+	/**
+	 * Creates the digest used for identifying records.
+	 *
+	 * @return The digest
+	 */
+	private static @NonNull MessageDigest newDigest() {
+		try {
+			return MessageDigest.getInstance("SHA-256");
+		} catch(NoSuchAlgorithmException e) {
+			throw new RuntimeException(e);
+		}
+	}
+}
@@ -0,0 +1,295 @@
+package tibetiroka.pwgen;
+
+import lombok.NonNull;
+import tibetiroka.pwgen.Configuration.SecurityLevel;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Synchronizes the hash storage with the hash storage of another node. The hash files are append-only, so every node remembers the byte offsets up to which it has exchanged records with each peer, and only the records appended after those offsets are transferred. Along with every offset, the file key and the last record before the offset are remembered, so that a replaced hash file is synchronized from the start instead of from a stale offset.
+ * <p>
+ * The peer is represented by a directory holding its hash and key files, such as a mounted share. Hash files are only synchronized if both nodes use the same public key, since the hashes of different keys cannot be compared.
+ */
+public class HashStoreSync {
+	/**
+	 * Synchronizes the hash storage of every security level with the specified peer.
+	 *
+	 * @param peerDir The directory of the peer's hash storage
+	 * @throws IOException If the hash storage or the synchronization state cannot be read or written
+	 */
+	public static void sync(@NonNull File peerDir) throws IOException {
+		for(SecurityLevel level : SecurityLevel.values()) {
+			sync(level, peerDir);
+		}
+	}
+	
+	/**
+	 * Synchronizes the hash storage of the specified security level with the specified peer. Local records are sent to the peer, then the peer's records are fetched; records appended on both sides since the last synchronization are only stored once.
+	 *
+	 * @param level   The security level
+	 * @param peerDir The directory of the peer's hash storage
+	 * @throws IOException If the hash storage or the synchronization state cannot be read or written
+	 */
+	public static void sync(@NonNull SecurityLevel level, @NonNull File peerDir) throws IOException {
+		File localStore = CredentialManager.getHashFile(level);
+		File peerStore = new File(peerDir, localStore.getName());
+		if((!localStore.exists() && !peerStore.exists()) || !syncKeys(level, peerDir)) {
+			return;
+		}
+		File stateFile = getStateFile(level);
+		Properties state = new Properties();
+		if(stateFile.exists()) {
+			try(FileInputStream stream = new FileInputStream(stateFile)) {
+				state.load(stream);
+			}
+		}
+		String peer = peerStore.getCanonicalPath();
+		//appending channels cannot read, so every file has a channel for each; the locks are released before any of them is closed
+		try(FileChannel localAppend = FileChannel.open(localStore.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND); FileChannel peerAppend = FileChannel.open(peerStore.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND); FileChannel localChannel = FileChannel.open(localStore.toPath(), StandardOpenOption.READ); FileChannel peerChannel = FileChannel.open(peerStore.toPath(), StandardOpenOption.READ)) {
+			FileLock[] locks = lockBoth(localAppend, peerAppend);
+			try {
+				long pushed = getOffset(state, peer + ".pushed", localStore, localChannel);
+				long pulled = getOffset(state, peer + ".pulled", peerStore, peerChannel);
+				if(pushed == 0 || pulled == 0) {//a replaced file may have lost the records received from the other side, so both files are synchronized from the start
+					pushed = 0;
+					pulled = 0;
+				}
+				HashRecords.Scan localRecords = HashRecords.scan(localChannel, pushed, localChannel.size(), false);
+				HashRecords.Scan peerRecords = HashRecords.scan(peerChannel, pulled, peerChannel.size(), false);
+				Set<ByteBuffer> localDigests = getDigests(localRecords);
+				Set<ByteBuffer> peerDigests = getDigests(peerRecords);
+				int sent = append(localChannel, pushed, localRecords, peerDigests, peerAppend);
+				int received = append(peerChannel, pulled, peerRecords, localDigests, localAppend);
+				localAppend.force(false);
+				peerAppend.force(false);
+				//everything in both files is now known to the other side, including the records just exchanged
+				setOffset(state, peer + ".pushed", localStore, localChannel);
+				setOffset(state, peer + ".pulled", peerStore, peerChannel);
+				System.out.println("Synchronized " + level.name().toLowerCase() + " hash storage: sent " + sent + ", received " + received + " records");
+			} finally {
+				locks[1].release();
+				locks[0].release();
+			}
+		}
+		File temp = new File(stateFile.getPath() + ".tmp");
+		try(FileOutputStream stream = new FileOutputStream(temp)) {
+			state.store(stream, "Hash storage synchronization offsets");
+			stream.getFD().sync();
+		}
+		Files.move(temp.toPath(), stateFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+	
+	/**
+	 * Makes sure that both nodes use the same public key for the specified security level. If only one of them has a key, it is copied to the other.
+	 *
+	 * @param level   The security level
+	 * @param peerDir The directory of the peer's hash storage
+	 * @return True if the hash files can be synchronized
+	 * @throws IOException If the key files cannot be read or written
+	 */
+	private static boolean syncKeys(@NonNull SecurityLevel level, @NonNull File peerDir) throws IOException {
+		File localKey = CredentialManager.getKeyFile(level);
+		File peerKey = new File(peerDir, localKey.getName());
+		if(localKey.exists() && peerKey.exists()) {
+			if(!Arrays.equals(Files.readAllBytes(localKey.toPath()), Files.readAllBytes(peerKey.toPath()))) {
+				System.err.println("The " + level.name().toLowerCase() + " hash storage uses a different key on the peer, skipping");
+				return false;
+			}
+		} else if(localKey.exists()) {
+			Files.copy(localKey.toPath(), peerKey.toPath());
+		} else if(peerKey.exists()) {
+			Files.copy(peerKey.toPath(), localKey.toPath());
+		} else {
+			return false;
+		}
+		return true;
+	}
+	
+	/**
+	 * Gets the offset up to which a hash file was synchronized. The offset is only used if the file is still the same file, and the last record before the offset is unchanged; otherwise the file was replaced, and it is synchronized from the start.
+	 *
+	 * @param state   The synchronization state
+	 * @param key     The key of the offset in the state
+	 * @param file    The hash file
+	 * @param channel The hash file, opened for reading
+	 * @return The offset, or 0 if the file has to be synchronized from the start
+	 * @throws IOException If the file cannot be read
+	 */
+	private static long getOffset(@NonNull Properties state, @NonNull String key, @NonNull File file, @NonNull FileChannel channel) throws IOException {
+		long offset = Long.parseLong(state.getProperty(key, "0"));
+		if(offset == 0) {
+			return 0;
+		}
+		boolean valid = offset <= channel.size() && getFileKey(file).equals(state.getProperty(key + ".file"));
+		if(valid) {
+			long recordOffset = Long.parseLong(state.getProperty(key + ".record", "-1"));
+			String digest = state.getProperty(key + ".digest", "");
+			valid = recordOffset >= 0 && recordOffset < offset;
+			if(valid) {
+				HashRecords.Scan check = HashRecords.scan(channel, recordOffset, offset, false);
+				valid = check.end() == offset && check.entries().size() == 1 && check.entries().get(0).offset() == recordOffset && digest.equals(ArrayUtils.toBase64String(check.entries().get(0).digest().array()));
+			}
+		}
+		if(!valid) {
+			System.out.println("The hash file " + file + " was replaced since the last synchronization, synchronizing all of its records");
+			return 0;
+		}
+		return offset;
+	}
+	
+	/**
+	 * Remembers that a hash file is synchronized up to its last complete record. The file key and the digest of that record are stored along with the offset, so that a replaced file can be detected.
+	 *
+	 * @param state   The synchronization state
+	 * @param key     The key of the offset in the state
+	 * @param file    The hash file
+	 * @param channel The hash file, opened for reading
+	 * @throws IOException If the file cannot be read
+	 */
+	private static void setOffset(@NonNull Properties state, @NonNull String key, @NonNull File file, @NonNull FileChannel channel) throws IOException {
+		HashRecords.Scan last = HashRecords.last(channel, channel.size());
+		if(last.entries().isEmpty()) {
+			state.setProperty(key, "0");
+			state.remove(key + ".file");
+			state.remove(key + ".record");
+			state.remove(key + ".digest");
+			return;
+		}
+		HashRecords.Entry record = last.entries().get(0);
+		state.setProperty(key, Long.toString(last.end()));
+		state.setProperty(key + ".file", getFileKey(file));
+		state.setProperty(key + ".record", Long.toString(record.offset()));
+		state.setProperty(key + ".digest", ArrayUtils.toBase64String(record.digest().array()));
+	}
+	
+	/**
+	 * Gets the key identifying a file, which changes if the file is replaced by another one.
+	 *
+	 * @param file The file
+	 * @return The key, or "null" if the file system has none
+	 * @throws IOException If the attributes of the file cannot be read
+	 */
+	private static @NonNull String getFileKey(@NonNull File file) throws IOException {
+		return String.valueOf(Files.readAttributes(file.toPath(), BasicFileAttributes.class).fileKey());
+	}
+	
+	/**
+	 * Locks both hash files. The two nodes of a synchronization see the files in opposite roles, so there is no lock order they agree on; instead, the second lock is only tried, and both locks are released and taken again after a random delay if it is held.
+	 *
+	 * @param localChannel The local hash file
+	 * @param peerChannel  The peer's hash file
+	 * @return The locks of the local and the peer's hash file
+	 * @throws IOException If the files cannot be locked
+	 */
+	private static @NonNull FileLock[] lockBoth(@NonNull FileChannel localChannel, @NonNull FileChannel peerChannel) throws IOException {
+		while(true) {
+			FileLock localLock = localChannel.lock();
+			FileLock peerLock = peerChannel.tryLock();
+			if(peerLock != null) {
+				return new FileLock[] {localLock, peerLock};
+			}
+			localLock.release();
+			try {
+				Thread.sleep(10 + ThreadLocalRandom.current().nextInt(100));
+			} catch(InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException("Interrupted while waiting for the peer's hash storage");
+			}
+		}
+	}
+	
+	/**
+	 * Collects the digests of the specified records.
+	 *
+	 * @param records The records
+	 * @return The digests
+	 */
+	private static @NonNull Set<ByteBuffer> getDigests(@NonNull HashRecords.Scan records) {
+		Set<ByteBuffer> digests = new HashSet<>();
+		for(HashRecords.Entry entry : records.entries()) {
+			digests.add(entry.digest());
+		}
+		return digests;
+	}
+	
+	/**
+	 * Appends the specified records to the target file. If none of them are already in the target's new records, the whole range is transferred at once; otherwise only the missing records are transferred, one by one. Either way, the records are copied without passing through the heap.
+	 *
+	 * @param source        The hash file to read from
+	 * @param start         The start of the range of the records
+	 * @param records       The records
+	 * @param targetDigests The digests of the records appended to the target since the last synchronization
+	 * @param target        The hash file to write to, opened for appending
+	 * @return The number of records appended
+	 * @throws IOException If the files cannot be read or written
+	 */
+	private static int append(@NonNull FileChannel source, long start, @NonNull HashRecords.Scan records, @NonNull Set<ByteBuffer> targetDigests, @NonNull FileChannel target) throws IOException {
+		boolean disjoint = true;
+		for(HashRecords.Entry entry : records.entries()) {
+			if(targetDigests.contains(entry.digest())) {
+				disjoint = false;
+				break;
+			}
+		}
+		if(disjoint) {
+			transfer(source, start, records.end(), target);
+			return records.entries().size();
+		}
+		int count = 0;
+		Set<ByteBuffer> written = new HashSet<>();
+		ByteBuffer separator = StandardCharsets.US_ASCII.encode(System.lineSeparator());
+		for(HashRecords.Entry entry : records.entries()) {
+			if(!targetDigests.contains(entry.digest()) && written.add(entry.digest())) {
+				transfer(source, entry.offset(), entry.offset() + entry.length(), target);
+				separator.rewind();
+				while(separator.hasRemaining()) {
+					target.write(separator);
+				}
+				count++;
+			}
+		}
+		return count;
+	}
+	
+	/**
+	 * Transfers the specified range of the source file to the end of the target file.
+	 *
+	 * @param source The file to read from
+	 * @param start  The start of the range
+	 * @param end    The end of the range
+	 * @param target The file to write to, opened for appending
+	 * @throws IOException If the files cannot be read or written
+	 */
+	private static void transfer(@NonNull FileChannel source, long start, long end, @NonNull FileChannel target) throws IOException {
+		for(long position = start; position < end; ) {
+			position += source.transferTo(position, end - position, target);
+		}
+	}
+	
+	/**
+	 * Gets the file where the synchronization offsets of the specified security level are stored.
+	 *
+	 * @param level The security level
+	 * @return The state file
+	 */
+	private static @NonNull File getStateFile(@NonNull SecurityLevel level) {
+		return new File("hashes_" + level.name().toLowerCase() + ".sync");
+	}
+}
@@ -0,0 +1,160 @@
+package tibetiroka.pwgen;
+
+import lombok.NonNull;
+import tibetiroka.pwgen.version.VersionManager;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Serves password requests without any prompts, for use in scripts and pipelines. A single process can serve any number of requests.
+ * <p>
+ * Every request consists of four fields: the generator version (empty for the latest version), the site, the username and the master password. Every field is a 4-byte big-endian length followed by that many bytes of UTF-8 text. Every response is a status byte (0 for success, 1 for failure), followed by a length-prefixed field containing the password or the error message.
+ * <p>
+ * If the hash storage is enabled, unknown username/password combinations are rejected instead of being saved, and every request is rejected if the current security level has no key. Keys are never generated in this mode.
+ */
+public class MachineMode {
+	/**
+	 * The largest accepted field, to avoid allocating huge buffers for malformed input
+	 */
+	private static final int MAX_FIELD_SIZE = 1 << 16;
+	/**
+	 * The status of successful responses
+	 */
+	private static final byte STATUS_OK = 0;
+	/**
+	 * The status of failed responses
+	 */
+	private static final byte STATUS_ERROR = 1;
+	
+	/**
+	 * Serves requests until the input is closed. While serving, {@link System#out} is redirected to the standard error, so that status messages cannot corrupt the responses.
+	 *
+	 * @param in  The stream of requests
+	 * @param out The stream of responses
+	 * @throws IOException If the streams cannot be read or written, or if a request is malformed
+	 */
+	public static void serve(@NonNull InputStream in, @NonNull OutputStream out) throws IOException {
+		PrintStream stdout = System.out;
+		System.setOut(System.err);
+		try {
+			DataInputStream input = new DataInputStream(new BufferedInputStream(in));
+			DataOutputStream output = new DataOutputStream(new BufferedOutputStream(out));
+			while(true) {
+				byte[] version;
+				try {
+					version = readField(input);
+				} catch(EOFException e) {
+					return;//no more requests
+				}
+				byte[] site = readField(input);
+				byte[] username = readField(input);
+				byte[] password = readField(input);
+				byte[] result = null;
+				try {
+					result = handle(new String(version, StandardCharsets.UTF_8), site, username, password);
+					output.writeByte(STATUS_OK);
+					output.writeInt(result.length);
+					output.write(result);
+				} catch(Exception e) {
+					byte[] message = String.valueOf(e.getMessage()).getBytes(StandardCharsets.UTF_8);
+					output.writeByte(STATUS_ERROR);
+					output.writeInt(message.length);
+					output.write(message);
+				} finally {
+					ArrayUtils.wipe(site);
+					ArrayUtils.wipe(username);
+					ArrayUtils.wipe(password);
+					if(result != null) {
+						ArrayUtils.wipe(result);
+					}
+				}
+				output.flush();
+			}
+		} finally {
+			System.setOut(stdout);
+		}
+	}
+	
+	/**
+	 * Generates the password for a single request.
+	 *
+	 * @param versionName The name of the generator version, or an empty string for the latest version
+	 * @param site        The site the password is used for
+	 * @param username    The name of the user on the site
+	 * @param password    The master password
+	 * @return The generated password
+	 * @throws Exception If the password cannot be generated or the credentials are not in the hash storage
+	 */
+	private static @NonNull byte[] handle(@NonNull String versionName, @NonNull byte[] site, @NonNull byte[] username, @NonNull byte[] password) throws Exception {
+		PasswordGenerator generator;
+		if(versionName.isEmpty()) {
+			generator = VersionManager.getGenerator(VersionManager.GeneratorVersion.values()[VersionManager.GeneratorVersion.values().length - 1]);
+		} else {
+			generator = VersionManager.getGenerator(versionName);
+		}
+		if(generator == null) {
+			throw new IllegalArgumentException("Unknown version");
+		}
+		site = PasswordGenerator.secureRandomBytes(site, 256);
+		username = PasswordGenerator.secureRandomBytes(username, 256);
+		password = PasswordGenerator.secureRandomBytes(password, 256);
+		byte[] cacheKey = null;
+		try {
+			if(Configuration.isUseDerivationCache() && Configuration.isUseHashStorage()) {
+				cacheKey = DerivationCache.deriveKey(password);
+				byte[] cached = DerivationCache.lookup(cacheKey, generator.getVersionName(), site, username);
+				if(cached != null) {
+					return cached;
+				}
+			}
+			if(Configuration.isUseHashStorage()) {
+				//without a key, checking the credentials would generate one and discard the hash storage
+				if(StoreRegistry.getKey(Configuration.getHashSecurity()) == null) {
+					throw new IllegalStateException("No hash storage key for level " + Configuration.getHashSecurity().name().toLowerCase());
+				}
+				if(!CredentialManager.verifyCredentials(username, password)) {
+					throw new IllegalArgumentException("Unknown username/password combination");
+				}
+			}
+			byte[] result = generator.generate(password, site, username);
+			if(cacheKey != null) {
+				DerivationCache.store(cacheKey, generator.getVersionName(), site, username, result);
+			}
+			return result;
+		} finally {
+			ArrayUtils.wipe(site);
+			ArrayUtils.wipe(username);
+			ArrayUtils.wipe(password);
+			if(cacheKey != null) {
+				ArrayUtils.wipe(cacheKey);
+			}
+		}
+	}
+	
+	/**
+	 * Reads a length-prefixed field.
+	 *
+	 * @param input The stream of requests
+	 * @return The content of the field
+	 * @throws EOFException If the input has ended
+	 * @throws IOException  If the input cannot be read or the field is too long
+	 */
+	private static @NonNull byte[] readField(@NonNull DataInputStream input) throws IOException {
+		int length = input.readInt();
+		if(length < 0 || length > MAX_FIELD_SIZE) {
+			throw new IOException("Invalid field length " + length);
+		}
+		byte[] field = new byte[length];
+		input.readFully(field);
+		return field;
+	}
+}
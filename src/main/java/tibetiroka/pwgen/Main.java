@@ -4,19 +4,24 @@ import lombok.NonNull;
 import lombok.SneakyThrows;
 import org.bouncycastle.jce.provider.BouncyCastleProvider;
 import tibetiroka.pwgen.Configuration.SecurityLevel;
+import tibetiroka.pwgen.output.ClipboardOutput;
+import tibetiroka.pwgen.output.ConsoleOutput;
+import tibetiroka.pwgen.output.FileOutput;
+import tibetiroka.pwgen.output.PasswordOutput;
 import tibetiroka.pwgen.version.VersionManager;
 
-import java.awt.Toolkit;
-import java.awt.datatransfer.Clipboard;
-import java.awt.datatransfer.DataFlavor;
-import java.awt.datatransfer.StringSelection;
-import java.awt.datatransfer.Transferable;
 import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.nio.charset.StandardCharsets;
 import java.security.Security;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 import java.util.Scanner;
+import java.util.Set;
 
 public class Main {
 	@SneakyThrows
@@ -26,6 +31,11 @@ public class Main {
 		byte[] site = null;
 		byte[] username = null;
 		byte[] password = null;
+		File batchInput = null;
+		File batchOutput = null;
+		boolean batchRestart = false;
+		File syncPeer = null;
+		boolean machine = false;
 		argLoop:
 		for(String arg : args) {
 			String[] parts = arg.split("=");
@@ -34,13 +44,10 @@ public class Main {
 					case "pwgen.config.hashSecurity" -> {
 						String s = parts[1].toUpperCase();
 						if(s.startsWith("HighestExisting".toUpperCase())) {
-							for(int i = SecurityLevel.values().length - 1; i >= 0; i--) {
-								SecurityLevel level = SecurityLevel.values()[i];
-								File keyFile = new File("public_" + level.name().toLowerCase() + ".x509");
-								if(keyFile.exists()) {
-									Configuration.setHashSecurity(level);
-									continue argLoop;
-								}
+							Set<SecurityLevel> levels = StoreRegistry.getAvailableLevels();
+							if(!levels.isEmpty()) {
+								Configuration.setHashSecurity(Collections.max(levels));
+								continue argLoop;
 							}
 							String s2 = s.substring("HighestExisting".length());
 							if(s2.startsWith("Or".toUpperCase())) {
@@ -52,12 +59,36 @@ public class Main {
 						}
 					}
 					case "pwgen.config.useHashStorage" -> Configuration.setUseHashStorage(Boolean.parseBoolean(parts[1]));
+					case "pwgen.config.verifyAllLevels" -> Configuration.setVerifyAllLevels(Boolean.parseBoolean(parts[1]));
 					case "pwgen.config.forceSafeConsole" -> Configuration.setForceSafeConsole(Boolean.parseBoolean(parts[1]));
 					case "pwgen.config.usernameSensitive" -> Configuration.setUsernameSensitive(Boolean.parseBoolean(parts[1]));
 					case "pwgen.config.siteSensitive" -> Configuration.setSiteSensitive(Boolean.parseBoolean(parts[1]));
 					case "pwgen.config.isSafeConsole" -> Configuration.setSafeConsole(Boolean.parseBoolean(parts[1]));
 					case "pwgen.config.copyPasswordToClipboard" -> Configuration.setCopyPasswordToClipboard(Boolean.parseBoolean(parts[1]));
 					case "pwgen.config.echoPassword" -> Configuration.setEchoPassword(Boolean.parseBoolean(parts[1]));
+					case "pwgen.config.passwordOutputFile" -> Configuration.setPasswordOutputFile(parts[1]);
+					case "pwgen.config.useDerivationCache" -> Configuration.setUseDerivationCache(Boolean.parseBoolean(parts[1]));
+					case "pwgen.config.derivationCacheTtl" -> {
+						long ttl = Long.parseLong(parts[1]);
+						if(ttl < 0) {
+							throw new IllegalArgumentException();
+						}
+						Configuration.setDerivationCacheTtl(ttl);
+					}
+					case "pwgen.config.derivationCacheSize" -> {
+						int size = Integer.parseInt(parts[1]);
+						if(size <= 0) {
+							throw new IllegalArgumentException();
+						}
+						Configuration.setDerivationCacheSize(size);
+					}
+					case "pwgen.config.batchWorkers" -> Configuration.setBatchWorkers(Integer.parseInt(parts[1]));
+					case "pwgen.config.batchShardSize" -> Configuration.setBatchShardSize(Integer.parseInt(parts[1]));
+					case "pwgen.batch.input" -> batchInput = new File(parts[1]);
+					case "pwgen.batch.output" -> batchOutput = new File(parts[1]);
+					case "pwgen.batch.restart" -> batchRestart = Boolean.parseBoolean(parts[1]);
+					case "pwgen.machine" -> machine = Boolean.parseBoolean(parts[1]);
+					case "pwgen.sync.peer" -> syncPeer = new File(parts[1]);
 					case "pwgen.generator.version" -> generator = VersionManager.getGenerator(parts[1]);
 					case "pwgen.site" -> site = PasswordGenerator.secureRandomBytes(parts[1].getBytes(StandardCharsets.UTF_8), 256);
 					case "pwgen.username" -> username = PasswordGenerator.secureRandomBytes(parts[1].getBytes(StandardCharsets.UTF_8), 256);
@@ -68,6 +99,29 @@ public class Main {
 			}
 		}
 		Security.addProvider(new BouncyCastleProvider());
+		if(machine) {
+			MachineMode.serve(System.in, new FileOutputStream(FileDescriptor.out));
+			return;
+		}
+		if(syncPeer != null) {
+			HashStoreSync.sync(syncPeer);
+			System.exit(0);
+		}
+		if(batchInput != null) {
+			if(generator == null) {
+				generator = VersionManager.getGenerator(VersionManager.GeneratorVersion.values()[VersionManager.GeneratorVersion.values().length - 1]);
+			}
+			if(password == null) {
+				password = PasswordGenerator.secureRandomBytes(promptPassword("Please type in your personal secret code:"), 256);
+			}
+			if(batchOutput == null) {
+				batchOutput = new File(batchInput.getPath() + ".out");
+			}
+			if(batchRestart) {
+				BatchRunner.discard(batchOutput);
+			}
+			System.exit(BatchRunner.run(generator, password, batchInput, batchOutput, BatchRunner.LOCAL_PROCESS) ? 0 : 1);
+		}
 		generate(generator, site, username, password);
 	}
 	
@@ -81,10 +135,12 @@ public class Main {
 	 * @throws Exception If the password cannot be generated
 	 */
 	public static void generate(PasswordGenerator generator, byte[] site, byte[] username, byte[] password) throws Exception {
-		if((!Configuration.isCopyPasswordToClipboard()) && (!Configuration.isEchoPassword())) {
+		List<PasswordOutput> outputs = createOutputs();
+		if(outputs.isEmpty()) {
 			System.out.println("All password output forms are turned off, aborting");
 			System.exit(0);
 		}
+		outputs.forEach(PasswordOutput::prepare);
 		Scanner sc = new Scanner(System.in);
 		System.out.println("Password Generator");
 		if(generator == null) {
@@ -114,9 +170,31 @@ public class Main {
 			password = PasswordGenerator.secureRandomBytes(promptPassword("Please type in your personal secret code:"), 256);
 		}
 		//
+		byte[] cacheKey = null;
+		if(Configuration.isUseDerivationCache() && Configuration.isUseHashStorage()) {
+			cacheKey = DerivationCache.deriveKey(password);
+			byte[] cached = DerivationCache.lookup(cacheKey, generator.getVersionName(), site, username);
+			if(cached != null) {//only verified credentials are cached, so the hash check can be skipped
+				ArrayUtils.wipe(cacheKey);
+				output(outputs, ArrayUtils.toCharArray(cached));
+				ArrayUtils.wipe(cached);
+				return;
+			}
+		}
+		//
+		boolean verified = false;
 		if(Configuration.isUseHashStorage()) {
-			String hash = CredentialManager.generateHash(username, password);
-			if(!CredentialManager.verifyHash(hash)) {
+			String hash = null;
+			if(Configuration.isVerifyAllLevels()) {
+				verified = CredentialManager.verifyCredentials(username, password);
+			} else {
+				hash = CredentialManager.generateHash(username, password);
+				verified = CredentialManager.verifyHash(hash);
+			}
+			if(!verified) {
+				if(hash == null) {
+					hash = CredentialManager.generateHash(username, password);
+				}
 				if(!promptAnswer("Unknown username/password combination. Are you sure it is correct? (Y/n)")) {
 					return;
 				}
@@ -126,30 +204,64 @@ public class Main {
 						String hash2 = CredentialManager.generateHash(username, pw2);
 						if(hash.equals(hash2)) {
 							CredentialManager.saveHash(hash);
+							verified = true;
 						} else {
 							System.out.println("The passwords do not match.");
 							return;
 						}
 					} else {
 						CredentialManager.saveHash(hash);
+						verified = true;
 					}
 				}
 			}
 		}
-		char[] result = ArrayUtils.toCharArray(generator.generate(password, site, username));
-		if(Configuration.isCopyPasswordToClipboard()) {
-			Clipboard c = Toolkit.getDefaultToolkit().getSystemClipboard();
-			StringSelection testData = new StringSelection(new String(result));
-			c.setContents(testData, testData);
-			Transferable t = c.getContents(null);
-			if(t.isDataFlavorSupported(DataFlavor.stringFlavor)) {
-				t.getTransferData(DataFlavor.stringFlavor);
+		byte[] generated = generator.generate(password, site, username);
+		try {
+			output(outputs, ArrayUtils.toCharArray(generated));
+		} finally {
+			if(cacheKey != null) {//the password is written first, so that a failing cache can never cost it
+				if(verified) {
+					DerivationCache.store(cacheKey, generator.getVersionName(), site, username, generated);
+				}
+				ArrayUtils.wipe(cacheKey);
 			}
-			System.out.println("Copied password to clipboard");
+		}
+	}
+	
+	/**
+	 * Creates the password outputs enabled in the configuration.
+	 *
+	 * @return The outputs
+	 */
+	private static @NonNull List<PasswordOutput> createOutputs() {
+		List<PasswordOutput> outputs = new ArrayList<>();
+		if(Configuration.isCopyPasswordToClipboard()) {
+			outputs.add(new ClipboardOutput());
+		}
+		if(Configuration.getPasswordOutputFile() != null) {
+			outputs.add(new FileOutput(new File(Configuration.getPasswordOutputFile())));
 		}
 		if(Configuration.isEchoPassword()) {
-			System.out.println("Your password is:");
-			System.out.println(result);
+			outputs.add(new ConsoleOutput());
+		}
+		return outputs;
+	}
+	
+	/**
+	 * Writes the generated password to all outputs, then clears it.
+	 *
+	 * @param outputs The outputs
+	 * @param result  The password
+	 * @throws Exception If the password cannot be written to an output
+	 */
+	private static void output(@NonNull List<PasswordOutput> outputs, @NonNull char[] result) throws Exception {
+		try {
+			for(PasswordOutput output : outputs) {
+				output.write(result);
+			}
+		} finally {
+			ArrayUtils.wipe(result);
 		}
 	}
 	
@@ -43,9 +43,7 @@ public abstract class PasswordGenerator {
 	 */
 	protected static @NonNull byte[] xorPad(@NonNull byte[] inputBytes, @NonNull byte[] keyBytes) {
 		byte[] result = new byte[inputBytes.length];
-		for(int i = 0; i < inputBytes.length; i++) {
-			result[i] = (byte) (inputBytes[i] ^ keyBytes[i % keyBytes.length]);
-		}
+		ArrayUtils.xor(inputBytes, keyBytes, result);
 		return result;
 	}
 	
@@ -0,0 +1,64 @@
+package tibetiroka.pwgen;
+
+import lombok.NonNull;
+
+import java.util.Arrays;
+
+/**
+ * Plain Java implementation of the byte operations, used when the vector API is not available.
+ */
+final class ScalarKernels implements ByteKernels {
+	@Override
+	public void xor(@NonNull byte[] input, @NonNull byte[] key, @NonNull byte[] output) {
+		for(int base = 0; base < input.length; base += key.length) {//one pass per key repetition to avoid a modulo per byte
+			int length = Math.min(key.length, input.length - base);
+			for(int i = 0; i < length; i++) {
+				output[base + i] = (byte) (input[base + i] ^ key[i]);
+			}
+		}
+	}
+	
+	@Override
+	public void wipe(@NonNull byte[] array) {
+		Arrays.fill(array, (byte) 0);
+	}
+	
+	@Override
+	public void wipe(@NonNull char[] array) {
+		Arrays.fill(array, (char) 0);
+	}
+	
+	@Override
+	public boolean isAscii(@NonNull byte[] array) {
+		for(byte b : array) {
+			if(b < 0) {
+				return false;
+			}
+		}
+		return true;
+	}
+	
+	@Override
+	public boolean isAscii(@NonNull char[] array) {
+		for(char c : array) {
+			if(c >= 0x80) {
+				return false;
+			}
+		}
+		return true;
+	}
+	
+	@Override
+	public void widen(@NonNull byte[] input, @NonNull char[] output) {
+		for(int i = 0; i < input.length; i++) {
+			output[i] = (char) input[i];
+		}
+	}
+	
+	@Override
+	public void narrow(@NonNull char[] input, @NonNull byte[] output) {
+		for(int i = 0; i < input.length; i++) {
+			output[i] = (byte) input[i];
+		}
+	}
+}
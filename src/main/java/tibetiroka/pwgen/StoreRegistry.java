@@ -0,0 +1,241 @@
+package tibetiroka.pwgen;
+
+import lombok.NonNull;
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import tibetiroka.pwgen.Configuration.SecurityLevel;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.KeyFactory;
+import java.security.PublicKey;
+import java.security.interfaces.RSAPublicKey;
+import java.security.spec.X509EncodedKeySpec;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Caches the public keys and the hash storages of the security levels, so that they are only parsed once per process. Cached data is checked against the modification time and size of its file before every use, and is reloaded if the file has changed. Since the hash storage is append-only, a grown hash file only has its new records read, provided that it is still the same file and the last record read is unchanged; otherwise it is read again from the start.
+ */
+public class StoreRegistry {
+	/**
+	 * The validated public keys of the security levels
+	 */
+	private static final Map<SecurityLevel, Cached<PublicKey>> keys = new ConcurrentHashMap<>();
+	/**
+	 * The hash storages of the security levels
+	 */
+	private static final Map<SecurityLevel, Cached<HashStore>> stores = new ConcurrentHashMap<>();
+	
+	/**
+	 * Gets the public key of the specified security level. The key is only read and validated if its file has changed since it was last used.
+	 *
+	 * @param level The security level
+	 * @return The key, or null if there is no valid key for the level
+	 */
+	public static PublicKey getKey(@NonNull SecurityLevel level) {
+		File keyFile = CredentialManager.getKeyFile(level);
+		BasicFileAttributes attributes = getAttributes(keyFile);
+		if(attributes == null) {
+			keys.remove(level);
+			System.out.println("No encryption key found for hash storage");
+			return null;
+		}
+		Cached<PublicKey> cached = keys.get(level);
+		if(cached != null && cached.matches(attributes)) {
+			return cached.value();
+		}
+		try {
+			byte[] publicKeyBytes = Files.readAllBytes(keyFile.toPath());
+			KeyFactory keyFactory = KeyFactory.getInstance("RSA", BouncyCastleProvider.PROVIDER_NAME);
+			PublicKey key = keyFactory.generatePublic(new X509EncodedKeySpec(publicKeyBytes));
+			if(key instanceof RSAPublicKey rsaKey) {
+				if(rsaKey.getModulus().bitLength() == level.getRsaKeySize()) {
+					keys.put(level, new Cached<>(attributes, key));
+					return key;
+				}
+				System.err.println("Invalid key found for hash storage");
+			}
+		} catch(Exception e) {
+			e.printStackTrace();
+		}
+		keys.remove(level);
+		return null;
+	}
+	
+	/**
+	 * Checks whether the hash storage of the specified security level contains the specified hash.
+	 *
+	 * @param level The security level
+	 * @param hash  The hash to check
+	 * @return True if the hash is present, false otherwise
+	 * @throws IOException If the hash file cannot be read
+	 */
+	public static boolean containsHash(@NonNull SecurityLevel level, @NonNull String hash) throws IOException {
+		File hashFile = CredentialManager.getHashFile(level);
+		BasicFileAttributes attributes = getAttributes(hashFile);
+		if(attributes == null) {
+			stores.remove(level);
+			return false;
+		}
+		Cached<HashStore> cached = stores.get(level);
+		HashStore store;
+		if(cached != null && cached.matches(attributes)) {
+			store = cached.value();
+		} else {
+			try(FileChannel channel = FileChannel.open(hashFile.toPath(), StandardOpenOption.READ)) {
+				if(cached != null && cached.isSameFile(attributes) && cached.value().load(channel)) {
+					store = cached.value();
+				} else {
+					store = new HashStore();
+					store.load(channel);
+				}
+			}
+			stores.put(level, new Cached<>(attributes, store));
+		}
+		return store.contains(hash);
+	}
+	
+	/**
+	 * Finds the security levels that have a public key with a single listing of the working directory. The keys are not validated.
+	 *
+	 * @return The security levels with a key file
+	 */
+	public static @NonNull Set<SecurityLevel> getAvailableLevels() {
+		Set<SecurityLevel> levels = EnumSet.noneOf(SecurityLevel.class);
+		String[] files = new File("").getAbsoluteFile().list();
+		if(files == null) {
+			return levels;
+		}
+		for(String file : files) {
+			if(file.startsWith("public_") && file.endsWith(".x509")) {
+				String name = file.substring("public_".length(), file.length() - ".x509".length());
+				for(SecurityLevel level : SecurityLevel.values()) {
+					if(level.name().toLowerCase().equals(name)) {
+						levels.add(level);
+					}
+				}
+			}
+		}
+		return levels;
+	}
+	
+	/**
+	 * Reads the modification time and size of the specified file.
+	 *
+	 * @param file The file
+	 * @return The attributes, or null if the file does not exist or cannot be accessed
+	 */
+	private static BasicFileAttributes getAttributes(@NonNull File file) {
+		try {
+			return Files.readAttributes(file.toPath(), BasicFileAttributes.class);
+		} catch(NoSuchFileException e) {
+			return null;
+		} catch(IOException e) {
+			e.printStackTrace();
+			return null;
+		}
+	}
+	
+	/**
+	 * A cached value with the attributes of the file it was loaded from.
+	 *
+	 * @param fileKey      The key identifying the file, or null if the file system has none
+	 * @param lastModified The modification time of the file in milliseconds
+	 * @param size         The size of the file
+	 * @param value        The cached value
+	 * @param <T>          The type of the cached value
+	 */
+	private record Cached<T>(Object fileKey, long lastModified, long size, @NonNull T value) {
+		Cached(@NonNull BasicFileAttributes attributes, @NonNull T value) {
+			this(attributes.fileKey(), attributes.lastModifiedTime().toMillis(), attributes.size(), value);
+		}
+		
+		/**
+		 * Checks whether the value was loaded from the same file, rather than from a file that has since replaced it.
+		 *
+		 * @param attributes The current attributes of the file
+		 * @return True if the file was not replaced, or if the file system cannot tell
+		 */
+		boolean isSameFile(@NonNull BasicFileAttributes attributes) {
+			return Objects.equals(fileKey, attributes.fileKey());
+		}
+		
+		/**
+		 * Checks whether the file is unchanged since the value was loaded.
+		 *
+		 * @param attributes The current attributes of the file
+		 * @return True if the file is unchanged
+		 */
+		boolean matches(@NonNull BasicFileAttributes attributes) {
+			return isSameFile(attributes) && lastModified == attributes.lastModifiedTime().toMillis() && size == attributes.size();
+		}
+	}
+	
+	/**
+	 * The records of a hash file. Only the digests of the records are kept in memory, as the records themselves can be very large at high security levels.
+	 */
+	private static class HashStore {
+		/**
+		 * The digests of the records
+		 */
+		private final Set<ByteBuffer> digests = Collections.synchronizedSet(new HashSet<>());
+		/**
+		 * The end of the last complete record that was read
+		 */
+		private long offset = 0;
+		/**
+		 * The last complete record that was read, or null if there is none
+		 */
+		private HashRecords.Entry last;
+		
+		/**
+		 * Reads the records appended to the file since the last call. Nothing is read if the file is not an extension of the records already read, that is, if it is shorter, or if the last complete record has changed.
+		 *
+		 * @param channel The hash file
+		 * @return True if the new records were read, false if the file has to be read from the start
+		 * @throws IOException If the file cannot be read
+		 */
+		synchronized boolean load(@NonNull FileChannel channel) throws IOException {
+			long size = channel.size();
+			if(size < offset) {
+				return false;
+			}
+			if(last != null) {
+				HashRecords.Scan check = HashRecords.scan(channel, last.offset(), offset, false);
+				if(check.end() != offset || check.entries().size() != 1 || !check.entries().get(0).equals(last)) {
+					return false;
+				}
+			}
+			HashRecords.Scan scan = HashRecords.scan(channel, offset, size, true);
+			for(HashRecords.Entry entry : scan.entries()) {
+				digests.add(entry.digest());//the last record has no line separator if it is partial; it is re-read once it is completed
+				if(entry.offset() < scan.end()) {
+					last = entry;
+				}
+			}
+			offset = scan.end();
+			return true;
+		}
+		
+		/**
+		 * Checks whether the specified record has been read.
+		 *
+		 * @param hash The record
+		 * @return True if the record is present
+		 */
+		boolean contains(@NonNull String hash) {
+			return digests.contains(HashRecords.digest(hash));
+		}
+	}
+}
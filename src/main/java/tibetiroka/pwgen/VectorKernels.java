@@ -0,0 +1,106 @@
+package tibetiroka.pwgen;
+
+import jdk.incubator.vector.ByteVector;
+import jdk.incubator.vector.ShortVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorShape;
+import jdk.incubator.vector.VectorSpecies;
+import lombok.NonNull;
+
+import java.util.Arrays;
+
+/**
+ * Implementation of the byte operations using the incubating vector API. Only loaded if the {@code jdk.incubator.vector} module is available.
+ */
+final class VectorKernels implements ByteKernels {
+	/**
+	 * The preferred byte vectors of the platform
+	 */
+	private static final VectorSpecies<Byte> BYTES = ByteVector.SPECIES_PREFERRED;
+	/**
+	 * The preferred short vectors of the platform, used as chars
+	 */
+	private static final VectorSpecies<Short> CHARS = ShortVector.SPECIES_PREFERRED;
+	/**
+	 * Byte vectors with as many lanes as {@link #CHARS}, for converting between bytes and chars
+	 */
+	private static final VectorSpecies<Byte> HALF_BYTES = ByteVector.SPECIES_PREFERRED.withShape(VectorShape.forBitSize(CHARS.vectorBitSize() / 2));
+	
+	@Override
+	public void xor(@NonNull byte[] input, @NonNull byte[] key, @NonNull byte[] output) {
+		for(int base = 0; base < input.length; base += key.length) {
+			int length = Math.min(key.length, input.length - base);
+			int i = 0;
+			for(int bound = BYTES.loopBound(length); i < bound; i += BYTES.length()) {
+				ByteVector.fromArray(BYTES, input, base + i).lanewise(VectorOperators.XOR, ByteVector.fromArray(BYTES, key, i)).intoArray(output, base + i);
+			}
+			for(; i < length; i++) {
+				output[base + i] = (byte) (input[base + i] ^ key[i]);
+			}
+		}
+	}
+	
+	@Override
+	public void wipe(@NonNull byte[] array) {
+		Arrays.fill(array, (byte) 0);//already compiled to vector stores, and faster than an explicit vector loop
+	}
+	
+	@Override
+	public void wipe(@NonNull char[] array) {
+		Arrays.fill(array, (char) 0);
+	}
+	
+	@Override
+	public boolean isAscii(@NonNull byte[] array) {
+		int i = 0;
+		for(int bound = BYTES.loopBound(array.length); i < bound; i += BYTES.length()) {
+			if(ByteVector.fromArray(BYTES, array, i).compare(VectorOperators.LT, (byte) 0).anyTrue()) {
+				return false;
+			}
+		}
+		for(; i < array.length; i++) {
+			if(array[i] < 0) {
+				return false;
+			}
+		}
+		return true;
+	}
+	
+	@Override
+	public boolean isAscii(@NonNull char[] array) {
+		int i = 0;
+		for(int bound = CHARS.loopBound(array.length); i < bound; i += CHARS.length()) {
+			if(ShortVector.fromCharArray(CHARS, array, i).lanewise(VectorOperators.AND, (short) 0xFF80).compare(VectorOperators.NE, (short) 0).anyTrue()) {
+				return false;
+			}
+		}
+		for(; i < array.length; i++) {
+			if(array[i] >= 0x80) {
+				return false;
+			}
+		}
+		return true;
+	}
+	
+	@Override
+	public void widen(@NonNull byte[] input, @NonNull char[] output) {
+		int i = 0;
+		for(int bound = HALF_BYTES.loopBound(input.length); i < bound; i += HALF_BYTES.length()) {
+			((ShortVector) ByteVector.fromArray(HALF_BYTES, input, i).convertShape(VectorOperators.B2S, CHARS, 0)).intoCharArray(output, i);
+		}
+		for(; i < input.length; i++) {
+			output[i] = (char) input[i];
+		}
+	}
+	
+	@Override
+	public void narrow(@NonNull char[] input, @NonNull byte[] output) {
+		int i = 0;
+		for(int bound = CHARS.loopBound(input.length); i < bound; i += CHARS.length()) {
+			((ByteVector) ShortVector.fromCharArray(CHARS, input, i).convertShape(VectorOperators.S2B, HALF_BYTES, 0)).intoArray(output, i);
+		}
+		for(; i < input.length; i++) {
+			output[i] = (byte) input[i];
+		}
+	}
+}
@@ -0,0 +1,44 @@
+package tibetiroka.pwgen.output;
+
+import lombok.NonNull;
+
+import java.awt.GraphicsEnvironment;
+import java.awt.Toolkit;
+import java.awt.datatransfer.Clipboard;
+import java.awt.datatransfer.StringSelection;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Copies the password to the system clipboard. The AWT toolkit is initialized in the background when the output is prepared, since it is one of the slowest steps of the whole process.
+ */
+public class ClipboardOutput implements PasswordOutput {
+	/**
+	 * The system clipboard, once it is initialized
+	 */
+	private CompletableFuture<Clipboard> clipboard;
+	
+	@Override
+	public void prepare() {
+		if(clipboard == null && !GraphicsEnvironment.isHeadless()) {
+			clipboard = CompletableFuture.supplyAsync(() -> Toolkit.getDefaultToolkit().getSystemClipboard());
+		}
+	}
+	
+	@Override
+	public void write(@NonNull char[] password) throws Exception {
+		if(GraphicsEnvironment.isHeadless()) {
+			System.out.println("The clipboard is not available on this system");
+			return;
+		}
+		prepare();
+		StringSelection selection = new StringSelection(new String(password));
+		try {
+			clipboard.get().setContents(selection, selection);
+		} catch(ExecutionException | IllegalStateException e) {//the toolkit could not be initialized, or the clipboard is in use
+			System.out.println("The clipboard is not available: " + (e instanceof ExecutionException ? e.getCause() : e));
+			return;
+		}
+		System.out.println("Copied password to clipboard");
+	}
+}
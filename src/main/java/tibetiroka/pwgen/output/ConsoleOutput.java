@@ -0,0 +1,14 @@
+package tibetiroka.pwgen.output;
+
+import lombok.NonNull;
+
+/**
+ * Writes the password to the standard output.
+ */
+public class ConsoleOutput implements PasswordOutput {
+	@Override
+	public void write(@NonNull char[] password) {
+		System.out.println("Your password is:");
+		System.out.println(password);
+	}
+}
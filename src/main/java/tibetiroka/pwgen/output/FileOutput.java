@@ -0,0 +1,44 @@
+package tibetiroka.pwgen.output;
+
+import lombok.NonNull;
+import tibetiroka.pwgen.ArrayUtils;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Writes the password to a file, such as a named pipe or a file descriptor under {@code /dev/fd}. The file is opened in append mode, so existing content is kept and pipes are not reopened for truncation.
+ */
+public class FileOutput implements PasswordOutput {
+	/**
+	 * The file to write to
+	 */
+	private final @NonNull File file;
+	
+	/**
+	 * Creates a new file output.
+	 *
+	 * @param file The file to write to
+	 */
+	public FileOutput(@NonNull File file) {
+		this.file = file;
+	}
+	
+	@Override
+	public void write(@NonNull char[] password) throws IOException {
+		ByteBuffer buffer = StandardCharsets.UTF_8.encode(CharBuffer.wrap(password));
+		try(FileOutputStream stream = new FileOutputStream(file, true)) {
+			ByteBuffer data = buffer.duplicate();
+			while(data.hasRemaining()) {
+				stream.getChannel().write(data);
+			}
+			stream.write(System.lineSeparator().getBytes(StandardCharsets.UTF_8));
+		} finally {
+			ArrayUtils.wipe(buffer.array());
+		}
+	}
+}
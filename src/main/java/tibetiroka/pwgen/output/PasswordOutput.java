@@ -0,0 +1,22 @@
+package tibetiroka.pwgen.output;
+
+import lombok.NonNull;
+
+/**
+ * A destination for generated passwords.
+ */
+public interface PasswordOutput {
+	/**
+	 * Prepares the output for writing. Called before the password is generated, so slow initialization can run in the background in the meantime.
+	 */
+	default void prepare() {
+	}
+	
+	/**
+	 * Writes the generated password to this output.
+	 *
+	 * @param password The password
+	 * @throws Exception If the password cannot be written
+	 */
+	void write(@NonNull char[] password) throws Exception;
+}
@@ -0,0 +1,160 @@
+package tibetiroka.pwgen;
+
+import lombok.NonNull;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Compares the vectorized byte operations with the scalar ones. The results of both implementations are checked for equality on random inputs first, then the operations are timed on inputs of 256 to 12384 bytes, the latter being the largest salt size.
+ * <p>
+ * Kept with the test sources, so it is not part of the packaged jar. After {@code mvn test-compile}, run with {@code java --add-modules jdk.incubator.vector -cp target/classes:target/test-classes:<dependencies> tibetiroka.pwgen.ByteKernelsBenchmark}; without the module, only the scalar operations are timed.
+ */
+class ByteKernelsBenchmark {
+	/**
+	 * The input sizes that are timed
+	 */
+	private static final int[] SIZES = {256, 1024, 4096, 12384};
+	/**
+	 * The number of random inputs checked for equivalence
+	 */
+	private static final int CHECKS = 20000;
+	/**
+	 * The number of calls per timed round
+	 */
+	private static final int CALLS = 5000;
+	/**
+	 * The number of timed rounds; the fastest is reported
+	 */
+	private static final int ROUNDS = 40;
+	
+	/**
+	 * Runs the equivalence check and the timings.
+	 *
+	 * @param args Ignored
+	 * @throws IllegalStateException If the implementations produce different results
+	 */
+	public static void main(String[] args) {
+		ByteKernels scalar = new ScalarKernels();
+		ByteKernels kernels = ArrayUtils.getKernels();
+		Random random = new Random(1);
+		if(ArrayUtils.isVectorized()) {
+			checkEquivalence(scalar, kernels, random);
+			System.out.println("The vectorized operations match the scalar operations on " + CHECKS + " random inputs");
+		} else {
+			System.out.println("The jdk.incubator.vector module is not available, only timing the scalar operations");
+		}
+		for(int size : SIZES) {
+			for(ByteKernels implementation : ArrayUtils.isVectorized() ? new ByteKernels[] {scalar, kernels} : new ByteKernels[] {scalar}) {
+				time(implementation, size, random);
+			}
+		}
+	}
+	
+	/**
+	 * Checks that both implementations produce the same results on random inputs, including lengths that are not multiples of the vector size and non-ASCII data.
+	 *
+	 * @param expected The reference implementation
+	 * @param actual   The implementation to check
+	 * @param random   The source of the inputs
+	 * @throws IllegalStateException If the results differ
+	 */
+	private static void checkEquivalence(@NonNull ByteKernels expected, @NonNull ByteKernels actual, @NonNull Random random) {
+		for(int i = 0; i < CHECKS; i++) {
+			int length = random.nextInt(SIZES[SIZES.length - 1] / 16);
+			byte[] input = new byte[length];
+			byte[] key = new byte[1 + random.nextInt(300)];
+			random.nextBytes(input);
+			random.nextBytes(key);
+			//
+			byte[] expectedBytes = new byte[length];
+			byte[] actualBytes = new byte[length];
+			expected.xor(input, key, expectedBytes);
+			actual.xor(input, key, actualBytes);
+			check(Arrays.equals(expectedBytes, actualBytes), "xor", length);
+			check(expected.isAscii(input) == actual.isAscii(input), "isAscii(byte[])", length);
+			//
+			byte[] ascii = new byte[length];
+			for(int j = 0; j < length; j++) {
+				ascii[j] = (byte) random.nextInt(128);
+			}
+			if(length > 0 && i % 7 == 0) {
+				ascii[random.nextInt(length)] = (byte) (0x80 + random.nextInt(0x80));
+			}
+			check(expected.isAscii(ascii) == actual.isAscii(ascii), "isAscii(byte[])", length);
+			char[] expectedChars = new char[length];
+			char[] actualChars = new char[length];
+			expected.widen(ascii, expectedChars);
+			actual.widen(ascii, actualChars);
+			check(Arrays.equals(expectedChars, actualChars), "widen", length);
+			//
+			if(length > 0 && i % 5 == 0) {
+				expectedChars[random.nextInt(length)] = (char) (0x80 + random.nextInt(0xff00));
+			}
+			check(expected.isAscii(expectedChars) == actual.isAscii(expectedChars), "isAscii(char[])", length);
+			expected.narrow(expectedChars, expectedBytes);
+			actual.narrow(expectedChars, actualBytes);
+			check(Arrays.equals(expectedBytes, actualBytes), "narrow", length);
+			//
+			actual.wipe(actualBytes);
+			actual.wipe(actualChars);
+			check(Arrays.equals(actualBytes, new byte[length]), "wipe(byte[])", length);
+			check(Arrays.equals(actualChars, new char[length]), "wipe(char[])", length);
+		}
+	}
+	
+	/**
+	 * Fails if an operation produced different results.
+	 *
+	 * @param equal     Whether the results are equal
+	 * @param operation The name of the operation
+	 * @param length    The length of the input
+	 * @throws IllegalStateException If the results differ
+	 */
+	private static void check(boolean equal, @NonNull String operation, int length) {
+		if(!equal) {
+			throw new IllegalStateException("The results of " + operation + " differ for " + length + " bytes");
+		}
+	}
+	
+	/**
+	 * Times the operations of an implementation and prints the fastest round.
+	 *
+	 * @param kernels The implementation
+	 * @param size    The length of the inputs
+	 * @param random  The source of the inputs
+	 */
+	private static void time(@NonNull ByteKernels kernels, int size, @NonNull Random random) {
+		byte[] input = new byte[size];
+		byte[] key = new byte[256];
+		byte[] output = new byte[size];
+		byte[] ascii = new byte[size];
+		char[] chars = new char[size];
+		random.nextBytes(input);
+		random.nextBytes(key);
+		long xor = Long.MAX_VALUE;
+		long wipe = Long.MAX_VALUE;
+		long widen = Long.MAX_VALUE;
+		for(int round = 0; round < ROUNDS; round++) {
+			long start = System.nanoTime();
+			for(int i = 0; i < CALLS; i++) {
+				kernels.xor(input, key, output);
+			}
+			long xorEnd = System.nanoTime();
+			for(int i = 0; i < CALLS; i++) {
+				kernels.wipe(output);
+			}
+			long wipeEnd = System.nanoTime();
+			for(int i = 0; i < CALLS; i++) {
+				if(kernels.isAscii(ascii)) {
+					kernels.widen(ascii, chars);
+				}
+			}
+			long widenEnd = System.nanoTime();
+			xor = Math.min(xor, xorEnd - start);
+			wipe = Math.min(wipe, wipeEnd - xorEnd);
+			widen = Math.min(widen, widenEnd - wipeEnd);
+		}
+		System.out.printf("%6d bytes %-14s xor %8.1f ns, wipe %7.1f ns, ascii to chars %8.1f ns%n", size, kernels.getClass().getSimpleName(), (double) xor / CALLS, (double) wipe / CALLS, (double) widen / CALLS);
+	}
+}